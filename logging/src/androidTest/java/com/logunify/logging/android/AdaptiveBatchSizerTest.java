@@ -0,0 +1,74 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.logunify.logging.event.EventRecord;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AdaptiveBatchSizerTest {
+    private SharedPreferences preferences;
+
+    @Before
+    public void setUp() {
+        preferences = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getSharedPreferences("logunify_batch_sizer_test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+    }
+
+    @Test
+    public void testAdaptsToLatency() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(preferences, AdaptiveBatchSizer.DEFAULT_BYTE_BUDGET);
+        assertEquals(sizer.getBatchSize(), AdaptiveBatchSizer.DEFAULT_BATCH_SIZE);
+
+        sizer.onSuccess(50, 100);
+        assertEquals(sizer.getBatchSize(), 75);
+
+        // Partial batches do not grow it
+        sizer.onSuccess(10, 100);
+        assertEquals(sizer.getBatchSize(), 75);
+
+        sizer.onSuccess(75, AdaptiveBatchSizer.TARGET_LATENCY_MILLIS + 1);
+        assertEquals(sizer.getBatchSize(), 56);
+
+        sizer.onTooLarge();
+        assertEquals(sizer.getBatchSize(), 28);
+
+        for (int i = 0; i < 10; ++i) {
+            sizer.onTooLarge();
+        }
+        assertEquals(sizer.getBatchSize(), AdaptiveBatchSizer.MIN_BATCH_SIZE);
+    }
+
+    @Test
+    public void testPersistsBatchSize() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(preferences, AdaptiveBatchSizer.DEFAULT_BYTE_BUDGET);
+        sizer.onTooLarge();
+
+        assertEquals(new AdaptiveBatchSizer(preferences, AdaptiveBatchSizer.DEFAULT_BYTE_BUDGET).getBatchSize(), 25);
+    }
+
+    @Test
+    public void testFitsByteBudget() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(preferences, 10);
+        List<EventRecord> events = new ArrayList<>();
+        events.add(new EventRecord("AAAA", "schema", "project"));
+        events.add(new EventRecord("AAAA", "schema", "project"));
+        events.add(new EventRecord("AAAA", "schema", "project"));
+        assertEquals(sizer.fit(events).size(), 2);
+
+        // A single event over the budget is still sent
+        List<EventRecord> large = new ArrayList<>();
+        large.add(new EventRecord("AAAAAAAAAAAAAAAA", "schema", "project"));
+        assertEquals(sizer.fit(large).size(), 1);
+    }
+}
@@ -0,0 +1,96 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CircuitBreakerTest {
+    private SharedPreferences preferences;
+
+    @Before
+    public void setUp() {
+        preferences = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getSharedPreferences("logunify_circuit_breaker_test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+    }
+
+    @Test
+    public void testOpensOnFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker(preferences);
+        List<CircuitBreaker.State> states = new ArrayList<>();
+        breaker.setListener(states::add);
+
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        breaker.onFailure();
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getRemainingOpenMillis() > 0);
+        assertEquals(states.size(), 1);
+        assertEquals(states.get(0), CircuitBreaker.State.OPEN);
+
+        // Persisted for the next worker run
+        assertEquals(new CircuitBreaker(preferences).getState(), CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void testHalfOpenAllowsSingleProbe() {
+        CircuitBreaker breaker = openBreaker();
+        preferences.edit().putLong(CircuitBreaker.PREFERENCE_KEY_OPEN_UNTIL, 0).commit();
+        breaker = new CircuitBreaker(preferences);
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testFailedProbeReopensForLonger() {
+        openBreaker();
+        preferences.edit().putLong(CircuitBreaker.PREFERENCE_KEY_OPEN_UNTIL, 0).commit();
+        CircuitBreaker breaker = new CircuitBreaker(preferences);
+
+        assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        assertTrue(breaker.getRemainingOpenMillis() > CircuitBreaker.MIN_OPEN_DURATION_MILLIS);
+    }
+
+    @Test
+    public void testAbortedProbeAllowsAnotherProbe() {
+        openBreaker();
+        preferences.edit().putLong(CircuitBreaker.PREFERENCE_KEY_OPEN_UNTIL, 0).commit();
+        CircuitBreaker breaker = new CircuitBreaker(preferences);
+
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.onAborted();
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        assertTrue(breaker.allowRequest());
+    }
+
+    private CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(preferences);
+        for (int i = 0; i < CircuitBreaker.MIN_REQUESTS; ++i) {
+            breaker.onFailure();
+        }
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        return breaker;
+    }
+}
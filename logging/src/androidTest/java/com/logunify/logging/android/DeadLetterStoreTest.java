@@ -0,0 +1,51 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.logunify.logging.event.EventRecord;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class DeadLetterStoreTest {
+    private DeadLetterStore store;
+
+    @Before
+    public void setUp() {
+        store = new DeadLetterStore(
+                SqliteEventQueue.EventsDB.getInstance(InstrumentationRegistry.getInstrumentation().getTargetContext()).getWritableDatabase(),
+                3);
+        store.clear();
+    }
+
+    @Test
+    public void testAddAndPeek() {
+        store.add(new EventRecord(7, new byte[]{1, 2, 3}, "schema", "project"), 400, "invalid");
+        store.add(new EventRecord(8, new byte[]{4}, "schema", null), 422, null);
+
+        List<DeadLetter> deadLetters = store.peek(10);
+        assertEquals(deadLetters.size(), 2);
+        assertArrayEquals(deadLetters.get(0).getRecord().getPayload(), new byte[]{1, 2, 3});
+        assertEquals(deadLetters.get(0).getRecord().getSchemaName(), "schema");
+        assertEquals(deadLetters.get(0).getStatusCode(), 400);
+        assertEquals(deadLetters.get(0).getError(), "invalid");
+        assertNull(deadLetters.get(1).getRecord().getProjectName());
+        assertNull(deadLetters.get(1).getError());
+    }
+
+    @Test
+    public void testKeepsNewestEntries() {
+        for (int i = 0; i < 5; ++i) {
+            store.add(new EventRecord(i, new byte[]{(byte) i}, "schema", "project"), 400, null);
+        }
+
+        assertEquals(store.size(), 3);
+        assertArrayEquals(store.peek(1).get(0).getRecord().getPayload(), new byte[]{2});
+    }
+}
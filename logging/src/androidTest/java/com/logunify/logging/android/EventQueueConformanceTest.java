@@ -0,0 +1,325 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.logunify.logging.Constants;
+import com.logunify.logging.event.Event;
+import com.logunify.logging.event.EventRecord;
+import com.test_project.UserActivitySchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Behaviour every {@link EventQueue} backend must share. A new backend only needs an entry in
+ * {@link #backends()}.
+ */
+@RunWith(Parameterized.class)
+public class EventQueueConformanceTest {
+    private static final int MAX_SIZE = 100;
+    private static final int BENCHMARK_EVENTS = 2000;
+    private static final int BENCHMARK_BATCH_SIZE = 50;
+
+    interface QueueFactory {
+        EventQueue open(Context context, File directory, int maxSize);
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> backends() {
+        return Arrays.asList(
+                new Object[]{"SQLite", (QueueFactory) (context, directory, maxSize) -> {
+                    SqliteEventQueue queue = new SqliteEventQueue(context, maxSize);
+                    queue.clear();
+                    return queue;
+                }},
+                new Object[]{"Memory mapped", (QueueFactory) (context, directory, maxSize) ->
+                        new MappedSegmentEventQueue(directory, maxSize, MappedSegmentEventQueue.DEFAULT_SEGMENT_SIZE, "test-")},
+                new Object[]{"In memory", (QueueFactory) (context, directory, maxSize) ->
+                        new InMemoryEventQueue(maxSize)}
+        );
+    }
+
+    private final String name;
+    private final QueueFactory factory;
+
+    private Context context;
+    private File directory;
+    private EventQueue queue;
+
+    public EventQueueConformanceTest(String name, QueueFactory factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        directory = new File(context.getCacheDir(), "conformance-" + UUID.randomUUID());
+        queue = factory.open(context, directory, MAX_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        queue.clear();
+        if (queue instanceof MappedSegmentEventQueue) {
+            ((MappedSegmentEventQueue) queue).close();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testKeepsInsertionOrder() {
+        List<Event> events = createEvents(10);
+        queue.enqueue(events.get(0));
+        queue.enqueueAll(events.subList(1, events.size()));
+        assertEquals(queue.size(), 10);
+
+        List<EventRecord> records = queue.peek(20);
+        assertEquals(records.size(), 10);
+        for (int i = 0; i < events.size(); ++i) {
+            assertEquals(records.get(i).getSerializedEvent(), events.get(i).serialize());
+            assertEquals(records.get(i).getSchemaName(), events.get(i).getSchemaName());
+            assertEquals(records.get(i).getProjectName(), events.get(i).getProjectName());
+            if (i > 0) {
+                assertTrue(records.get(i - 1).getId() < records.get(i).getId());
+            }
+        }
+    }
+
+    @Test
+    public void testAckAndRemove() {
+        List<Event> events = createEvents(5);
+        queue.enqueueAll(events);
+
+        assertEquals(queue.ack(queue.peek(2).get(1).getId()), 2);
+        assertEquals(queue.size(), 3);
+        queue.remove(1);
+        assertEquals(queue.size(), 2);
+        assertEquals(queue.peek(1).get(0).getSerializedEvent(), events.get(3).serialize());
+
+        queue.clear();
+        assertEquals(queue.size(), 0);
+        assertEquals(queue.peek(1).size(), 0);
+    }
+
+    @Test
+    public void testEvictsOldestBeyondMaxSize() {
+        List<Event> events = createEvents(MAX_SIZE + 5);
+        queue.enqueueAll(events.subList(0, MAX_SIZE));
+        queue.enqueue(events.get(MAX_SIZE));
+        queue.enqueueAll(events.subList(MAX_SIZE + 1, events.size()));
+
+        // Backends may drop more than the overflow at once to amortize eviction
+        long size = queue.size();
+        assertTrue(size > 0 && size <= MAX_SIZE);
+        List<EventRecord> records = queue.peek(MAX_SIZE);
+        assertEquals(records.size(), size);
+        assertEquals(records.get(0).getSerializedEvent(), events.get((int) (events.size() - size)).serialize());
+        assertEquals(records.get(records.size() - 1).getSerializedEvent(), events.get(events.size() - 1).serialize());
+    }
+
+    @Test
+    public void testLeases() {
+        queue.enqueueAll(createEvents(3));
+
+        List<EventRecord> claimedByA = queue.claim("a", 2);
+        List<EventRecord> claimedByB = queue.claim("b", 2);
+        assertEquals(claimedByA.size(), 2);
+        assertEquals(claimedByB.size(), 1);
+
+        // Acks only cover the owner's leases
+        assertEquals(queue.ack("b", claimedByA.get(1).getId()), 0);
+        assertEquals(queue.ack("b", claimedByB.get(0).getId()), 1);
+        assertEquals(queue.size(), 2);
+
+        queue.release("a");
+        assertEquals(queue.claim("b", 2).size(), 2);
+    }
+
+    @Test
+    public void testAckWithoutOwnerSkipsLeasedEvents() {
+        queue.enqueueAll(createEvents(4));
+        List<EventRecord> claimed = queue.claim("a", 2);
+        long lastId = queue.peek(4).get(3).getId();
+
+        // Events another consumer has in flight are left to it
+        assertEquals(queue.ack(lastId), 2);
+        assertEquals(queue.size(), 2);
+        queue.enqueueAll(createEvents(2));
+        queue.remove(3);
+        assertEquals(queue.size(), 2);
+        assertEquals(queue.ack("a", claimed.get(1).getId()), 2);
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testAssignsEventIds() {
+        queue.enqueueAll(createEvents(10));
+
+        List<EventRecord> claimed = queue.claim("a", 10);
+        Set<String> eventIds = new HashSet<>();
+        for (EventRecord record : claimed) {
+            assertNotNull(record.getEventId());
+            eventIds.add(record.getEventId());
+        }
+        assertEquals(eventIds.size(), 10);
+
+        // Released events are claimed again with the same ids
+        queue.release("a");
+        List<EventRecord> reclaimed = queue.claim("b", 10);
+        for (int i = 0; i < claimed.size(); ++i) {
+            assertEquals(reclaimed.get(i).getEventId(), claimed.get(i).getEventId());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final int producers = 4;
+        final int consumers = 2;
+        final int eventsPerProducer = 200;
+        queue.clear();
+        queue = reopen(producers * eventsPerProducer);
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        CountDownLatch produced = new CountDownLatch(producers);
+        List<Future<List<EventRecord>>> consumed = new ArrayList<>();
+        for (int i = 0; i < producers; ++i) {
+            executor.submit(() -> {
+                List<Event> events = createEvents(eventsPerProducer);
+                for (int j = 0; j < events.size(); j += 10) {
+                    if (j % 20 == 0) {
+                        queue.enqueueAll(events.subList(j, j + 10));
+                    } else {
+                        for (Event event : events.subList(j, j + 10)) {
+                            queue.enqueue(event);
+                        }
+                    }
+                }
+                produced.countDown();
+                return null;
+            });
+        }
+        for (int i = 0; i < consumers; ++i) {
+            final String owner = "consumer-" + i;
+            consumed.add(executor.submit(() -> {
+                List<EventRecord> received = new ArrayList<>();
+                while (true) {
+                    boolean done = produced.getCount() == 0;
+                    List<EventRecord> batch = queue.claim(owner, 7);
+                    if (batch.isEmpty()) {
+                        if (done) {
+                            return received;
+                        }
+                        Thread.sleep(1);
+                        continue;
+                    }
+                    received.addAll(batch);
+                    queue.ack(owner, batch.get(batch.size() - 1).getId());
+                }
+            }));
+        }
+
+        Set<Long> ids = new HashSet<>();
+        for (Future<List<EventRecord>> future : consumed) {
+            List<EventRecord> received = future.get(60, TimeUnit.SECONDS);
+            for (int i = 0; i < received.size(); ++i) {
+                // Every event is delivered to exactly one consumer, each one in id order
+                assertTrue(ids.add(received.get(i).getId()));
+                if (i > 0) {
+                    assertTrue(received.get(i - 1).getId() < received.get(i).getId());
+                }
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(ids.size(), producers * eventsPerProducer);
+        assertEquals(queue.size(), 0);
+    }
+
+    /**
+     * Measures the enqueue, claim and ack cycle used by the logger and worker, results are
+     * reported in logcat so backends can be compared on the same device.
+     */
+    @Test
+    public void benchmark() {
+        queue.clear();
+        queue = reopen(BENCHMARK_EVENTS);
+        List<Event> events = createEvents(BENCHMARK_EVENTS);
+
+        long start = System.nanoTime();
+        for (Event event : events) {
+            queue.enqueue(event);
+        }
+        long enqueueNanos = System.nanoTime() - start;
+        queue.clear();
+
+        start = System.nanoTime();
+        for (int i = 0; i < events.size(); i += BENCHMARK_BATCH_SIZE) {
+            queue.enqueueAll(events.subList(i, Math.min(i + BENCHMARK_BATCH_SIZE, events.size())));
+        }
+        long enqueueAllNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<EventRecord> batch = queue.claim("benchmark", BENCHMARK_BATCH_SIZE);
+        while (!batch.isEmpty()) {
+            queue.ack("benchmark", batch.get(batch.size() - 1).getId());
+            batch = queue.claim("benchmark", BENCHMARK_BATCH_SIZE);
+        }
+        long drainNanos = System.nanoTime() - start;
+        assertEquals(queue.size(), 0);
+
+        Log.i(Constants.LOGGING_TAG, String.format(Utils.DEFAULT_LOCALE,
+                "%s: enqueue %.0f events/s, enqueue in batches %.0f events/s, drain %.0f events/s",
+                name, events.size() * 1e9 / enqueueNanos, events.size() * 1e9 / enqueueAllNanos,
+                events.size() * 1e9 / drainNanos));
+    }
+
+    private EventQueue reopen(int maxSize) {
+        if (queue instanceof MappedSegmentEventQueue) {
+            ((MappedSegmentEventQueue) queue).close();
+        }
+        return factory.open(context, directory, maxSize);
+    }
+
+    private static List<Event> createEvents(int numEvents) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < numEvents; ++i) {
+            events.add(UserActivitySchema.UserActivity.newBuilder()
+                    .setEvent(i % 2 == 0 ? UserActivitySchema.Event.CLICK : UserActivitySchema.Event.IMPRESSION)
+                    .setSessionId(UUID.randomUUID().toString())
+                    .setUserId("uid")
+                    .build());
+        }
+        return events;
+    }
+}
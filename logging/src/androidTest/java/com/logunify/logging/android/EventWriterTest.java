@@ -0,0 +1,218 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.logunify.logging.Constants;
+import com.logunify.logging.event.Event;
+import com.logunify.logging.event.EventRecord;
+import com.test_project.UserActivitySchema;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class EventWriterTest {
+    private static final int BENCHMARK_EVENTS = 2000;
+
+    SqliteEventQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new SqliteEventQueue(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        queue.clear();
+    }
+
+    @Test
+    public void testRingBufferIsFifoAndBounded() {
+        EventRingBuffer buffer = new EventRingBuffer(3);
+        assertEquals(buffer.capacity(), 4);
+
+        List<Event> events = createEvents(5);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(buffer.offer(events.get(i)));
+        }
+        assertFalse(buffer.offer(events.get(4)));
+
+        List<Event> drained = new ArrayList<>();
+        assertEquals(buffer.drainTo(drained, 2), 2);
+        assertTrue(buffer.offer(events.get(4)));
+        assertEquals(buffer.drainTo(drained, 10), 3);
+        assertEquals(drained, events);
+    }
+
+    @Test
+    public void testRingBufferWithConcurrentProducers() throws InterruptedException {
+        final EventRingBuffer buffer = new EventRingBuffer(1024);
+        final Event event = createEvents(1).get(0);
+        Thread[] producers = new Thread[4];
+        for (int i = 0; i < producers.length; ++i) {
+            producers[i] = new Thread(() -> {
+                for (int j = 0; j < 200; ++j) {
+                    assertTrue(buffer.offer(event));
+                }
+            });
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        List<Event> drained = new ArrayList<>();
+        assertEquals(buffer.drainTo(drained, 2000), 800);
+    }
+
+    @Test
+    public void testWriterPersistsEventsInOrder() throws InterruptedException {
+        final int[] persisted = {0};
+        EventWriter writer = new EventWriter(queue, count -> persisted[0] += count, 32);
+        writer.start();
+
+        List<Event> events = createEvents(20);
+        for (Event event : events) {
+            writer.publish(event);
+        }
+        assertTrue(writer.awaitIdle(1000));
+        assertEquals(persisted[0], 20);
+        assertEquals(queue.size(), 20);
+
+        List<EventRecord> records = queue.peek(20);
+        for (int i = 0; i < events.size(); ++i) {
+            assertEquals(records.get(i).getSerializedEvent(), events.get(i).serialize());
+        }
+        writer.shutdown();
+    }
+
+    @Test
+    public void testFullBufferDropsEventsWithoutBlocking() throws InterruptedException {
+        final List<Thread> listenerThreads = new ArrayList<>();
+        EventWriter writer = new EventWriter(queue, count -> listenerThreads.add(Thread.currentThread()), 4);
+
+        // The buffer fills up before the writer starts
+        List<Event> events = createEvents(20);
+        for (Event event : events) {
+            writer.publish(event);
+        }
+        assertEquals(queue.size(), 0);
+        assertEquals(writer.getDroppedEventCount(), 16);
+
+        writer.start();
+        assertTrue(writer.awaitIdle(1000));
+        writer.shutdown();
+
+        assertEquals(queue.size(), 4);
+        List<EventRecord> records = queue.peek(4);
+        for (int i = 0; i < records.size(); ++i) {
+            assertEquals(records.get(i).getSerializedEvent(), events.get(i).serialize());
+        }
+        for (Thread thread : listenerThreads) {
+            assertEquals(thread.getName(), "logunify-event-writer");
+        }
+    }
+
+    @Test
+    public void testWriterFailureStopsPublishing() throws InterruptedException {
+        EventWriter writer = new EventWriter(queue, count -> {
+            throw new AssertionError("Listener failed");
+        });
+        writer.start();
+        writer.publish(createEvents(1).get(0));
+
+        // Events are dropped rather than left in a buffer nobody drains
+        long deadline = System.currentTimeMillis() + 1000;
+        while (writer.getDroppedEventCount() == 0 && System.currentTimeMillis() < deadline) {
+            writer.publish(createEvents(1).get(0));
+            Thread.sleep(10);
+        }
+        assertTrue(writer.getDroppedEventCount() > 0);
+        writer.shutdown();
+    }
+
+    @Test
+    public void testShutdownPersistsPublishedEvents() throws InterruptedException {
+        EventWriter writer = new EventWriter(queue, count -> {
+        });
+        writer.start();
+        for (Event event : createEvents(50)) {
+            writer.publish(event);
+        }
+        writer.shutdown();
+        assertEquals(queue.size(), 50);
+
+        // Dropped once shut down
+        writer.publish(createEvents(1).get(0));
+        assertEquals(queue.size(), 50);
+    }
+
+    /**
+     * Compares the caller-side cost of the synchronous enqueue against publishing to the writer.
+     * Results are reported in logcat.
+     */
+    @Test
+    public void benchmarkSynchronousEnqueueAgainstWriter() throws InterruptedException {
+        List<Event> events = createEvents(BENCHMARK_EVENTS);
+
+        long[] syncLatencies = new long[BENCHMARK_EVENTS];
+        long syncStart = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_EVENTS; ++i) {
+            long start = System.nanoTime();
+            queue.enqueue(events.get(i));
+            syncLatencies[i] = System.nanoTime() - start;
+        }
+        long syncTotal = System.nanoTime() - syncStart;
+        assertEquals(queue.size(), BENCHMARK_EVENTS);
+        queue.clear();
+
+        EventWriter writer = new EventWriter(queue, count -> {
+        });
+        writer.start();
+        long[] asyncLatencies = new long[BENCHMARK_EVENTS];
+        long asyncStart = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_EVENTS; ++i) {
+            long start = System.nanoTime();
+            writer.publish(events.get(i));
+            asyncLatencies[i] = System.nanoTime() - start;
+        }
+        long asyncPublished = System.nanoTime() - asyncStart;
+        assertTrue(writer.awaitIdle(60 * 1000));
+        long asyncTotal = System.nanoTime() - asyncStart;
+        // Events logged faster than they are persisted are dropped
+        assertEquals(queue.size(), BENCHMARK_EVENTS - writer.getDroppedEventCount());
+        writer.shutdown();
+
+        Log.i(Constants.LOGGING_TAG, String.format(Utils.DEFAULT_LOCALE,
+                "Synchronous enqueue: %.0f events/s, p50 %d us, p99 %d us",
+                BENCHMARK_EVENTS * 1e9 / syncTotal, percentile(syncLatencies, 50) / 1000, percentile(syncLatencies, 99) / 1000));
+        Log.i(Constants.LOGGING_TAG, String.format(Utils.DEFAULT_LOCALE,
+                "Writer publish: %.0f events/s on the caller, %.0f events/s persisted, p50 %d us, p99 %d us, %d dropped",
+                BENCHMARK_EVENTS * 1e9 / asyncPublished, BENCHMARK_EVENTS * 1e9 / asyncTotal,
+                percentile(asyncLatencies, 50) / 1000, percentile(asyncLatencies, 99) / 1000, writer.getDroppedEventCount()));
+    }
+
+    private static long percentile(long[] values, int percentile) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    private static List<Event> createEvents(int numEvents) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < numEvents; ++i) {
+            events.add(UserActivitySchema.UserActivity.newBuilder()
+                    .setEvent(UserActivitySchema.Event.CLICK)
+                    .setSessionId(UUID.randomUUID().toString())
+                    .setUserId("uid")
+                    .build());
+        }
+        return events;
+    }
+}
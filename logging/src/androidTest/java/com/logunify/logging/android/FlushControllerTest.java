@@ -0,0 +1,76 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlushControllerTest {
+    private static final long TARGET_MILLIS = 2 * 60 * 1000;
+
+    private SharedPreferences preferences;
+    private FlushPolicy policy;
+
+    @Before
+    public void setUp() {
+        preferences = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getSharedPreferences("logunify_flush_controller_test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+        policy = new FlushPolicy.Builder()
+                .setMinBatchSize(40)
+                .setMaxDelayMillis(30 * 1000)
+                .setLatencyTarget(TARGET_MILLIS, 0.95f)
+                .build();
+    }
+
+    @Test
+    public void testFixedWithoutTarget() {
+        FlushController controller = new FlushController(preferences, FlushPolicy.getDefault());
+        controller.onFlushed(60 * 60 * 1000);
+        assertEquals(controller.getMinBatchSize(), FlushPolicy.DEFAULT_MIN_BATCH_SIZE);
+        assertEquals(controller.getMaxDelayMillis(), FlushPolicy.DEFAULT_MAX_DELAY_MILLIS);
+        assertEquals(controller.getMetrics().getLastEventAgeMillis(), 60 * 60 * 1000);
+    }
+
+    @Test
+    public void testShrinksWhenMissingTarget() {
+        FlushController controller = new FlushController(preferences, policy);
+        controller.onFlushed(TARGET_MILLIS * 2);
+        assertEquals(controller.getMinBatchSize(), 20);
+        assertEquals(controller.getMaxDelayMillis(), 15 * 1000);
+
+        // Persisted for the next process
+        assertEquals(new FlushController(preferences, policy).getMinBatchSize(), 20);
+    }
+
+    @Test
+    public void testGrowsWithHeadroom() {
+        FlushController controller = new FlushController(preferences, policy);
+        for (int i = 0; i < FlushController.MIN_SAMPLES + 20; ++i) {
+            controller.onFlushed(1000);
+        }
+        assertTrue(controller.getMinBatchSize() > 40);
+        assertTrue(controller.getMaxDelayMillis() > 30 * 1000);
+        assertTrue(controller.getMaxDelayMillis() <= TARGET_MILLIS / 2);
+
+        FlushMetrics metrics = controller.getMetrics();
+        assertEquals(metrics.getPercentileEventAgeMillis(), 1000);
+        assertEquals(metrics.getLatencyTargetMillis(), TARGET_MILLIS);
+    }
+
+    @Test
+    public void testComputesPercentile() {
+        FlushController controller = new FlushController(preferences, policy);
+        for (int i = 1; i <= FlushController.WINDOW_SIZE; ++i) {
+            controller.onFlushed(i * 1000);
+        }
+        // 19 of the 20 flushes
+        assertEquals(controller.getPercentileAgeMillis(), 19 * 1000);
+    }
+}
@@ -0,0 +1,130 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.work.ExistingWorkPolicy;
+
+import com.test_project.UserActivitySchema;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class FlushCoordinatorTest {
+    private static final int MIN_BATCH_SIZE = 10;
+    private static final long MIN_DELAY_MILLIS = 10 * 1000;
+
+    private InMemoryEventQueue queue;
+    private CircuitBreaker circuitBreaker;
+    private FlushController controller;
+    private FlushCoordinator coordinator;
+    private final List<Long> delays = new ArrayList<>();
+    private final List<ExistingWorkPolicy> policies = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        SharedPreferences preferences = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getSharedPreferences("logunify_flush_coordinator_test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+        queue = new InMemoryEventQueue(1000);
+        circuitBreaker = new CircuitBreaker(preferences);
+        FlushPolicy flushPolicy = new FlushPolicy.Builder()
+                .setMinBatchSize(MIN_BATCH_SIZE)
+                .setMaxDelayMillis(MIN_DELAY_MILLIS)
+                .build();
+        controller = new FlushController(preferences, flushPolicy);
+        coordinator = new FlushCoordinator(queue, circuitBreaker, (delayMillis, policy) -> {
+            delays.add(delayMillis);
+            policies.add(policy);
+        }, controller);
+    }
+
+    @Test
+    public void testCoalescesTriggers() {
+        persist(1);
+        assertEquals(delays.size(), 1);
+        assertEquals((long) delays.get(0), MIN_DELAY_MILLIS);
+        assertEquals(policies.get(0), ExistingWorkPolicy.KEEP);
+
+        // Brought forward once, then left alone
+        persist(MIN_BATCH_SIZE * 3);
+        assertEquals(delays.size(), 2);
+        assertEquals((long) delays.get(1), 0);
+        assertEquals(policies.get(1), ExistingWorkPolicy.REPLACE);
+    }
+
+    @Test
+    public void testReschedulesEventsPersistedWhileRunning() {
+        persist(MIN_BATCH_SIZE);
+        assertEquals(delays.size(), 1);
+
+        coordinator.onFlushStarted();
+        queue.clear();
+        persist(MIN_BATCH_SIZE);
+        assertEquals(delays.size(), 1);
+
+        coordinator.onFlushFinished(false, true);
+        assertEquals(delays.size(), 2);
+        assertEquals((long) delays.get(1), 0);
+    }
+
+    @Test
+    public void testLeavesRetriesToWorkManager() {
+        persist(MIN_BATCH_SIZE);
+        coordinator.onFlushStarted();
+        coordinator.onFlushFinished(true, false);
+
+        persist(MIN_BATCH_SIZE);
+        assertEquals(delays.size(), 1);
+    }
+
+    @Test
+    public void testOnlyRecordsAgesOfDeliveredFlushes() {
+        persist(MIN_BATCH_SIZE);
+
+        // Failed, the events wait for the next flush
+        coordinator.onFlushStarted();
+        coordinator.onFlushFinished(false, false);
+        assertEquals(controller.getMetrics().getFlushCount(), 0);
+
+        coordinator.onFlushStarted();
+        queue.clear();
+        coordinator.onFlushFinished(false, true);
+        assertEquals(controller.getMetrics().getFlushCount(), 1);
+
+        // Nothing left to send
+        coordinator.onFlushStarted();
+        coordinator.onFlushFinished(false, false);
+        assertEquals(controller.getMetrics().getFlushCount(), 1);
+    }
+
+    @Test
+    public void testPostponesWhileBreakerIsOpen() {
+        for (int i = 0; i < CircuitBreaker.MIN_REQUESTS; ++i) {
+            circuitBreaker.onFailure();
+        }
+        persist(MIN_BATCH_SIZE);
+        assertEquals(delays.size(), 1);
+        assertEquals(policies.get(0), ExistingWorkPolicy.KEEP);
+        assertTrue(delays.get(0) > MIN_DELAY_MILLIS);
+    }
+
+    private void persist(int count) {
+        for (int i = 0; i < count; ++i) {
+            queue.enqueue(UserActivitySchema.UserActivity.newBuilder()
+                    .setEvent(UserActivitySchema.Event.CLICK)
+                    .setSessionId(UUID.randomUUID().toString())
+                    .setUserId("uid")
+                    .build());
+            coordinator.onEventsPersisted();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.work.NetworkType;
+
+import com.logunify.logging.http.CompressionCodec;
+import com.logunify.logging.http.HttpClient;
+import com.logunify.logging.http.PayloadFormat;
+
+import org.junit.Test;
+
+public class FlushPolicyTest {
+    @Test
+    public void testDefaults() {
+        FlushPolicy policy = FlushPolicy.getDefault();
+        assertEquals(policy.getMinBatchSize(), FlushPolicy.DEFAULT_MIN_BATCH_SIZE);
+        assertEquals(policy.getPeriodicIntervalMinutes(), FlushPolicy.MIN_PERIODIC_INTERVAL_MINUTES);
+        assertEquals(policy.getMaxRequestBytes(), AdaptiveBatchSizer.DEFAULT_BYTE_BUDGET);
+        assertEquals(policy.getRequiredNetworkType(), NetworkType.UNMETERED);
+        assertTrue(policy.requiresBatteryNotLow());
+        assertFalse(policy.requiresCharging());
+    }
+
+    @Test
+    public void testBuilder() {
+        FlushPolicy policy = new FlushPolicy.Builder()
+                .setMinBatchSize(100)
+                .setMaxDelayMillis(60 * 1000)
+                .setMaxQueueSize(20000)
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .setRequiresBatteryNotLow(false)
+                .build();
+        assertEquals(policy.getMinBatchSize(), 100);
+        assertEquals(policy.getMaxDelayMillis(), 60 * 1000);
+        assertEquals(policy.getMaxQueueSize(), 20000);
+        assertEquals(policy.getRequiredNetworkType(), NetworkType.CONNECTED);
+        assertFalse(policy.requiresBatteryNotLow());
+    }
+
+    @Test
+    public void testEvictionPolicy() {
+        FlushPolicy policy = FlushPolicy.getDefault();
+        assertEquals(policy.getEvictionPolicy(), EvictionPolicy.OLDEST);
+        assertEquals(policy.getEvictionFraction(), SqliteEventQueue.DEFAULT_EVICTION_FRACTION, 0);
+
+        policy = new FlushPolicy.Builder()
+                .setEvictionPolicy(EvictionPolicy.LOWEST_PRIORITY, 0.25f)
+                .build();
+        assertEquals(policy.getEvictionPolicy(), EvictionPolicy.LOWEST_PRIORITY);
+        assertEquals(policy.getEvictionFraction(), 0.25f, 0);
+    }
+
+    @Test
+    public void testCompressionConfiguresClient() {
+        FlushPolicy policy = FlushPolicy.getDefault();
+        assertEquals(policy.getCompressionCodec(), CompressionCodec.GZIP);
+        assertEquals(policy.getCompressionThresholdBytes(), HttpClient.DEFAULT_COMPRESSION_THRESHOLD_BYTES);
+
+        policy = new FlushPolicy.Builder()
+                .setCompression(CompressionCodec.DEFLATE, 0)
+                .build();
+        HttpClient client = Uploader.getClient("http://localhost/", "key", policy.getPayloadFormat(),
+                policy.getCompressionCodec(), policy.getCompressionThresholdBytes());
+        assertEquals(client.getCompressionCodec(), CompressionCodec.DEFLATE);
+        assertSame(Uploader.getClient("http://localhost/", "key", PayloadFormat.JSON, CompressionCodec.DEFLATE, 0), client);
+
+        HttpClient uncompressed = Uploader.getClient("http://localhost/", "key", PayloadFormat.JSON, null, 0);
+        assertNotSame(uncompressed, client);
+        assertNull(uncompressed.getCompressionCodec());
+    }
+
+    @Test
+    public void testPayloadFormatConfiguresClient() {
+        assertEquals(FlushPolicy.getDefault().getPayloadFormat(), PayloadFormat.JSON);
+
+        FlushPolicy policy = new FlushPolicy.Builder()
+                .setPayloadFormat(PayloadFormat.PROTOBUF)
+                .build();
+        HttpClient client = Uploader.getClient("http://localhost/", "key", policy.getPayloadFormat(),
+                policy.getCompressionCodec(), policy.getCompressionThresholdBytes());
+        assertEquals(client.getPayloadFormat(), PayloadFormat.PROTOBUF);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsEvictionFractionOfOne() {
+        new FlushPolicy.Builder().setEvictionPolicy(EvictionPolicy.NEWEST, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsShortPeriodicInterval() {
+        new FlushPolicy.Builder().setPeriodicIntervalMinutes(5);
+    }
+}
@@ -0,0 +1,72 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ForegroundUploaderTest {
+    private ForegroundUploader uploader;
+    private final List<Long> fallbackDelays = new ArrayList<>();
+    private final List<ExistingWorkPolicy> fallbackPolicies = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        SharedPreferences preferences = context.getSharedPreferences("logunify_foreground_uploader_test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+        // Constraints always met
+        FlushPolicy policy = new FlushPolicy.Builder()
+                .setRequiredNetworkType(NetworkType.NOT_REQUIRED)
+                .setRequiresBatteryNotLow(false)
+                .build();
+        FlushCoordinator coordinator = new FlushCoordinator(new InMemoryEventQueue(100), new CircuitBreaker(preferences),
+                (delayMillis, existingWorkPolicy) -> {
+                }, new FlushController(preferences, policy));
+        // Not started, flushes stay pending
+        uploader = new ForegroundUploader(context, policy, coordinator, (name, stopSignal) -> {
+            throw new AssertionError("No upload expected");
+        }, (delayMillis, existingWorkPolicy) -> {
+            fallbackDelays.add(delayMillis);
+            fallbackPolicies.add(existingWorkPolicy);
+        });
+    }
+
+    @Test
+    public void testOnlySchedulesInForeground() {
+        assertFalse(uploader.schedule(0, ExistingWorkPolicy.REPLACE));
+
+        uploader.onActivityStarted(null);
+        assertTrue(uploader.schedule(10 * 1000, ExistingWorkPolicy.KEEP));
+        assertTrue(fallbackDelays.isEmpty());
+    }
+
+    @Test
+    public void testHandsPendingFlushToWorkManager() {
+        uploader.onActivityStarted(null);
+        assertTrue(uploader.schedule(10 * 1000, ExistingWorkPolicy.KEEP));
+
+        uploader.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(fallbackDelays.size(), 1);
+        assertTrue(fallbackDelays.get(0) <= 10 * 1000);
+        assertEquals(fallbackPolicies.get(0), ExistingWorkPolicy.KEEP);
+        assertFalse(uploader.schedule(0, ExistingWorkPolicy.REPLACE));
+
+        // Nothing left to hand over
+        uploader.onLowMemory();
+        assertEquals(fallbackDelays.size(), 1);
+    }
+}
@@ -1,6 +1,7 @@
 package com.logunify.logging.android;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
@@ -27,6 +28,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import okhttp3.mockwebserver.MockResponse;
@@ -64,7 +66,6 @@ public class LoggerTest {
 
     @Before
     public void setUp() {
-        logger.lastScheduled = -1;
         logger.preflightQueue.clear();
     }
 
@@ -74,7 +75,7 @@ public class LoggerTest {
         successBody.put("success", true);
         mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody(successBody.toString()));
 
-        List<Event> events = generateAndPublishEvents(Logger.MIN_BATCH_SIZE);
+        List<Event> events = generateAndPublishEvents(logger.flushPolicy.getMinBatchSize());
         testDriver.setAllConstraintsMet(logger.lastScheduledOneTimeWorkRequest.getId());
 
         validateRequestToServer(events);
@@ -94,7 +95,7 @@ public class LoggerTest {
         testDriver.setInitialDelayMet(logger.lastScheduledOneTimeWorkRequest.getId());
 
         validateRequestToServer(events);
-        assertEquals(logger.lastScheduledOneTimeWorkRequest.getWorkSpec().initialDelay, Logger.MIN_TIME_DELAY);
+        assertEquals(logger.lastScheduledOneTimeWorkRequest.getWorkSpec().initialDelay, logger.flushPolicy.getMaxDelayMillis());
 
         waitTilWorkIsFinished(logger.lastScheduledOneTimeWorkRequest);
     }
@@ -114,6 +115,28 @@ public class LoggerTest {
         waitTilWorkIsFinished(logger.lastScheduledPeriodicWorkRequest);
     }
 
+    @Test
+    public void testFlush() throws JSONException, InterruptedException, ExecutionException, TimeoutException {
+        JSONObject successBody = new JSONObject();
+        successBody.put("success", true);
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody(successBody.toString()));
+
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            Event event = createEvent();
+            events.add(event);
+            logger.logEvent(event);
+        }
+        // Covers the events still being persisted, without waiting for the delayed worker
+        FlushResult result = logger.flush(5000).get(10, TimeUnit.SECONDS);
+
+        validateRequestToServer(events);
+        assertEquals(result.getSentEvents(), 2);
+        assertTrue(result.getSentBytes() > 0);
+        assertTrue(result.isDrained());
+        assertEquals(logger.preflightQueue.size(), 0);
+    }
+
     private void validateRequestToServer(List<Event> events) throws JSONException, InterruptedException {
         JSONArray jsonArray = new JSONArray();
         for (Event event : events) {
@@ -126,13 +149,20 @@ public class LoggerTest {
         jsonRequestBody.put("app_metadata", appMetadata.toJSON());
 
         RecordedRequest recordedRequest = mockWebServer.takeRequest();
+        JSONObject sentBody = new JSONObject(recordedRequest.getBody().readUtf8());
+        // Event ids come from the queue
+        JSONArray sentEvents = sentBody.getJSONArray("events");
+        for (int i = 0; i < sentEvents.length(); ++i) {
+            assertTrue(sentEvents.getJSONObject(i).getString("eventId").startsWith(logger.installationID));
+            sentEvents.getJSONObject(i).remove("eventId");
+        }
         assertEquals(
-                recordedRequest.getBody().readUtf8(),
+                sentBody.toString(),
                 jsonRequestBody.toString()
         );
     }
 
-    private List<Event> generateAndPublishEvents(int numEvents) {
+    private List<Event> generateAndPublishEvents(int numEvents) throws InterruptedException, TimeoutException {
         List<Event> events = new ArrayList<>();
         for (int i = 0; i < numEvents; ++i) {
             Event event = createEvent();
@@ -140,6 +170,9 @@ public class LoggerTest {
             logger.logEvent(event);
         }
 
+        if (!logger.eventWriter.awaitIdle(1000)) {
+            throw new TimeoutException();
+        }
         return events;
     }
 
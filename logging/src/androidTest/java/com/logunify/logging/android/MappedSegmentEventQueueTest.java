@@ -0,0 +1,288 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.logunify.logging.Constants;
+import com.logunify.logging.event.Event;
+import com.logunify.logging.event.EventRecord;
+import com.test_project.UserActivitySchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+public class MappedSegmentEventQueueTest {
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int BENCHMARK_EVENTS = 2000;
+    private static final int BENCHMARK_BATCH_SIZE = 50;
+    private static final String EVENT_ID_PREFIX = "installation-m";
+
+    private File directory;
+    private MappedSegmentEventQueue queue;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        directory = new File(context.getCacheDir(), "mapped-queue-" + UUID.randomUUID());
+        queue = new MappedSegmentEventQueue(directory, 100, SEGMENT_SIZE, EVENT_ID_PREFIX);
+    }
+
+    @After
+    public void tearDown() {
+        queue.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testEnqueuePeekAndAck() {
+        List<Event> events = createEvents(3);
+        queue.enqueueAll(events);
+        assertEquals(queue.size(), 3);
+
+        List<EventRecord> records = queue.peek(2);
+        assertEquals(records.size(), 2);
+        assertEquals(records.get(0).getSerializedEvent(), events.get(0).serialize());
+        assertEquals(records.get(0).getSchemaName(), events.get(0).getSchemaName());
+        assertEquals(records.get(0).getProjectName(), events.get(0).getProjectName());
+        assertTrue(records.get(0).getId() < records.get(1).getId());
+
+        assertEquals(queue.ack(records.get(1).getId()), 2);
+        assertEquals(queue.size(), 1);
+        assertEquals(queue.peek(2).get(0).getSerializedEvent(), events.get(2).serialize());
+    }
+
+    @Test
+    public void testRecordsSurviveReopen() {
+        List<Event> events = createEvents(3);
+        queue.enqueueAll(events);
+        queue.remove(1);
+        long lastId = queue.peek(2).get(1).getId();
+        String eventId = queue.peek(1).get(0).getEventId();
+
+        reopen();
+        List<EventRecord> records = queue.peek(10);
+        assertEquals(records.size(), 2);
+        assertEquals(records.get(0).getSerializedEvent(), events.get(1).serialize());
+        assertEquals(records.get(1).getSerializedEvent(), events.get(2).serialize());
+        // Events sent again after a restart keep their ids, so the receiver drops the duplicates
+        assertEquals(records.get(0).getEventId(), eventId);
+
+        queue.enqueue(events.get(0));
+        assertTrue(queue.peek(3).get(2).getId() > lastId);
+    }
+
+    @Test
+    public void testRollsOverAndDeletesSegments() {
+        queue.enqueueAll(createEvents(100));
+        assertTrue(segmentFiles().length > 1);
+
+        queue.ack(queue.peek(100).get(99).getId());
+        assertEquals(queue.size(), 0);
+        assertEquals(segmentFiles().length, 1);
+
+        reopen();
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testEvictsOldestWhenFull() {
+        List<Event> events = createEvents(101);
+        queue.enqueueAll(events);
+        assertEquals(queue.size(), 100);
+        assertEquals(queue.peek(1).get(0).getSerializedEvent(), events.get(1).serialize());
+    }
+
+    @Test
+    public void testClaimSkipsLeasedEvents() {
+        queue.enqueueAll(createEvents(3));
+
+        List<EventRecord> claimedByA = queue.claim("a", 2);
+        List<EventRecord> claimedByB = queue.claim("b", 2);
+        assertEquals(claimedByA.size(), 2);
+        assertEquals(claimedByB.size(), 1);
+
+        assertEquals(queue.ack("b", claimedByB.get(0).getId()), 1);
+        assertEquals(queue.size(), 2);
+        queue.release("a");
+        assertEquals(queue.claim("b", 2).size(), 2);
+    }
+
+    @Test
+    public void testRecoversFromTruncatedTail() throws IOException {
+        List<Event> events = createEvents(3);
+        queue.enqueueAll(events);
+        queue.close();
+
+        File segment = segmentFiles()[0];
+        List<Integer> offsets = recordOffsets(segment);
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(offsets.get(2) + MappedSegmentEventQueue.RECORD_HEADER_SIZE + 4);
+        file.close();
+
+        reopen();
+        List<EventRecord> records = queue.peek(10);
+        assertEquals(records.size(), 2);
+        assertEquals(records.get(1).getSerializedEvent(), events.get(1).serialize());
+
+        queue.enqueue(events.get(2));
+        reopen();
+        assertEquals(queue.size(), 3);
+        assertEquals(queue.peek(3).get(2).getSerializedEvent(), events.get(2).serialize());
+    }
+
+    @Test
+    public void testDiscardsTornWrite() throws IOException {
+        List<Event> events = createEvents(3);
+        queue.enqueueAll(events);
+        queue.close();
+
+        File segment = segmentFiles()[0];
+        List<Integer> offsets = recordOffsets(segment);
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        // Flip a byte in the middle of the second record's body
+        int position = offsets.get(1) + MappedSegmentEventQueue.RECORD_HEADER_SIZE + 10;
+        file.seek(position);
+        int value = file.read();
+        file.seek(position);
+        file.write(value ^ 0xff);
+        file.close();
+
+        reopen();
+        List<EventRecord> records = queue.peek(10);
+        assertEquals(records.size(), 1);
+        assertEquals(records.get(0).getSerializedEvent(), events.get(0).serialize());
+
+        // Leftovers of the torn records are wiped and never come back
+        queue.enqueue(events.get(2));
+        reopen();
+        assertEquals(queue.size(), 2);
+    }
+
+    @Test
+    public void testFallsBackToPreviousHeaderSlot() throws IOException {
+        List<Event> events = createEvents(3);
+        queue.enqueueAll(events);
+        queue.remove(1);
+        queue.close();
+
+        // Corrupt both slots' magic in turn; the queue must still open from the other one, and
+        // with no valid slot at all start from the oldest segment.
+        File header = new File(directory, MappedSegmentEventQueue.HEADER_FILE_NAME);
+        RandomAccessFile file = new RandomAccessFile(header, "rw");
+        file.seek(0);
+        file.writeInt(0);
+        file.close();
+        reopen();
+        assertTrue(queue.size() >= 2);
+        queue.close();
+
+        file = new RandomAccessFile(header, "rw");
+        file.seek(0);
+        file.writeInt(0);
+        file.seek(MappedSegmentEventQueue.HEADER_SLOT_SIZE);
+        file.writeInt(0);
+        file.close();
+        reopen();
+        assertEquals(queue.size(), 3);
+    }
+
+    /**
+     * Compares the SQLite and memory-mapped backends on the enqueue, claim and ack cycle used by
+     * the logger and worker. Results are reported in logcat.
+     */
+    @Test
+    public void benchmarkAgainstSqlite() {
+        queue.close();
+        queue = new MappedSegmentEventQueue(directory, BENCHMARK_EVENTS, MappedSegmentEventQueue.DEFAULT_SEGMENT_SIZE, EVENT_ID_PREFIX);
+        SqliteEventQueue sqliteQueue = new SqliteEventQueue(InstrumentationRegistry.getInstrumentation().getTargetContext(), BENCHMARK_EVENTS);
+        sqliteQueue.clear();
+
+        List<Event> events = createEvents(BENCHMARK_EVENTS);
+        report("SQLite", sqliteQueue, events);
+        report("Memory mapped", queue, events);
+    }
+
+    private void report(String name, EventQueue eventQueue, List<Event> events) {
+        long start = System.nanoTime();
+        for (Event event : events) {
+            eventQueue.enqueue(event);
+        }
+        long enqueueNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<EventRecord> batch = eventQueue.claim("benchmark", BENCHMARK_BATCH_SIZE);
+        while (!batch.isEmpty()) {
+            eventQueue.ack("benchmark", batch.get(batch.size() - 1).getId());
+            batch = eventQueue.claim("benchmark", BENCHMARK_BATCH_SIZE);
+        }
+        long drainNanos = System.nanoTime() - start;
+        assertEquals(eventQueue.size(), 0);
+
+        Log.i(Constants.LOGGING_TAG, String.format(Utils.DEFAULT_LOCALE,
+                "%s: enqueue %.0f events/s, drain %.0f events/s",
+                name, events.size() * 1e9 / enqueueNanos, events.size() * 1e9 / drainNanos));
+    }
+
+    private void reopen() {
+        queue.close();
+        queue = new MappedSegmentEventQueue(directory, 100, SEGMENT_SIZE, EVENT_ID_PREFIX);
+    }
+
+    private File[] segmentFiles() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".dat"));
+        assertFalse(files == null);
+        return files;
+    }
+
+    private static List<Integer> recordOffsets(File segment) throws IOException {
+        List<Integer> offsets = new ArrayList<>();
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            int offset = 0;
+            while (offset + 4 <= file.length()) {
+                file.seek(offset);
+                int bodyLength = file.readInt();
+                if (bodyLength == 0) {
+                    break;
+                }
+                offsets.add(offset);
+                offset += MappedSegmentEventQueue.RECORD_HEADER_SIZE + bodyLength;
+            }
+        } finally {
+            file.close();
+        }
+        return offsets;
+    }
+
+    private static List<Event> createEvents(int numEvents) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < numEvents; ++i) {
+            events.add(UserActivitySchema.UserActivity.newBuilder()
+                    .setEvent(i % 2 == 0 ? UserActivitySchema.Event.CLICK : UserActivitySchema.Event.IMPRESSION)
+                    .setSessionId(UUID.randomUUID().toString())
+                    .setUserId("uid")
+                    .build());
+        }
+        return events;
+    }
+}
@@ -0,0 +1,183 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.logunify.logging.event.Event;
+import com.logunify.logging.event.EventRecord;
+import com.test_project.UserActivitySchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PipelinedUploaderTest {
+    private InMemoryEventQueue queue;
+    private AdaptiveBatchSizer batchSizer;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        queue = new InMemoryEventQueue(1000);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            events.add(UserActivitySchema.UserActivity.newBuilder()
+                    .setEvent(UserActivitySchema.Event.CLICK)
+                    .setSessionId(UUID.randomUUID().toString())
+                    .setUserId("uid")
+                    .build());
+        }
+        queue.enqueueAll(events);
+
+        // Batches of 10 events
+        SharedPreferences preferences = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getSharedPreferences("logunify_pipelined_uploader_test", Context.MODE_PRIVATE);
+        preferences.edit().putInt(AdaptiveBatchSizer.PREFERENCE_KEY_BATCH_SIZE, 10).commit();
+        batchSizer = new AdaptiveBatchSizer(preferences, AdaptiveBatchSizer.DEFAULT_BYTE_BUDGET);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDrainsWithBoundedWindow() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Set<Long> sentIds = new HashSet<>();
+        PipelinedUploader uploader = new PipelinedUploader(queue, batchSizer, batch -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                // Later batches may complete first
+                Thread.sleep((long) (Math.random() * 20));
+            } catch (InterruptedException e) {
+                return 0;
+            }
+            synchronized (sentIds) {
+                for (EventRecord record : batch) {
+                    assertTrue(sentIds.add(record.getId()));
+                }
+            }
+            running.decrementAndGet();
+            return batch.size();
+        }, executor, 3);
+
+        assertEquals(uploader.drain("worker"), 200);
+        assertFalse(uploader.hasFailed());
+        assertEquals(sentIds.size(), 200);
+        assertEquals(queue.size(), 0);
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void testAcknowledgesPrefixBeforeFailure() {
+        long failingId = queue.peek(35).get(34).getId();
+        PipelinedUploader uploader = new PipelinedUploader(queue, batchSizer, batch -> {
+            for (EventRecord record : batch) {
+                if (record.getId() == failingId) {
+                    return 0;
+                }
+            }
+            return batch.size();
+        }, executor, 4);
+
+        long sent = uploader.drain("worker");
+        assertTrue(uploader.hasFailed());
+        assertEquals(sent, 30);
+        // Everything from the failed batch on is left in the queue, and no longer leased
+        assertEquals(queue.size(), 170);
+        assertEquals(queue.peek(1).get(0).getId(), failingId - 4);
+        assertEquals(queue.claim("other", 1000).size(), 170);
+    }
+
+    @Test
+    public void testStopsAcknowledgingAfterPartlySentBatch() {
+        long partialId = queue.peek(15).get(14).getId();
+        PipelinedUploader uploader = new PipelinedUploader(queue, batchSizer, batch -> {
+            for (EventRecord record : batch) {
+                if (record.getId() == partialId) {
+                    return 5;
+                }
+            }
+            return batch.size();
+        }, executor, 4);
+
+        long sent = uploader.drain("worker");
+        assertTrue(uploader.hasFailed());
+        assertEquals(sent, 15);
+        // The unsent tail stays ahead of the later batches
+        assertEquals(queue.size(), 185);
+        assertEquals(queue.peek(1).get(0).getId(), partialId + 1);
+        assertEquals(queue.claim("other", 1000).size(), 185);
+    }
+
+    @Test
+    public void testStopsClaimingWhenStopped() {
+        AtomicInteger sentBatches = new AtomicInteger();
+        PipelinedUploader uploader = new PipelinedUploader(queue, batchSizer, batch -> {
+            sentBatches.incrementAndGet();
+            return batch.size();
+        }, executor, 1);
+
+        long sent = uploader.drain("worker", () -> sentBatches.get() >= 5);
+        assertFalse(uploader.hasFailed());
+        assertEquals(sent, 50);
+        assertEquals(queue.size(), 150);
+        assertEquals(queue.claim("other", 1000).size(), 150);
+    }
+
+    @Test
+    public void testInterruptAwaitsBatchesInFlight() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(3);
+        CountDownLatch proceed = new CountDownLatch(1);
+        PipelinedUploader uploader = new PipelinedUploader(queue, batchSizer, batch -> {
+            started.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                return 0;
+            }
+            return batch.size();
+        }, executor, 3);
+
+        long[] sent = new long[1];
+        boolean[] interrupted = new boolean[1];
+        Thread drainer = new Thread(() -> {
+            sent[0] = uploader.drain("worker");
+            interrupted[0] = Thread.currentThread().isInterrupted();
+        });
+        drainer.start();
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        drainer.interrupt();
+        // Still waiting for the uploads in flight
+        Thread.sleep(100);
+        assertTrue(drainer.isAlive());
+        proceed.countDown();
+        drainer.join();
+
+        assertEquals(sent[0], 30);
+        assertTrue(interrupted[0]);
+        assertFalse(uploader.hasFailed());
+        assertEquals(queue.size(), 170);
+        assertEquals(queue.claim("other", 1000).size(), 170);
+    }
+}
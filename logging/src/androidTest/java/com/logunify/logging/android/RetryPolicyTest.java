@@ -0,0 +1,59 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+    private SharedPreferences preferences;
+
+    @Before
+    public void setUp() {
+        preferences = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getSharedPreferences("logunify_retry_policy_test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+    }
+
+    @Test
+    public void testClassifiesStatusCodes() {
+        assertEquals(RetryPolicy.Failure.fromStatusCode(429), RetryPolicy.Failure.THROTTLED);
+        assertEquals(RetryPolicy.Failure.fromStatusCode(503), RetryPolicy.Failure.SERVER);
+        assertEquals(RetryPolicy.Failure.fromStatusCode(408), RetryPolicy.Failure.SERVER);
+        assertEquals(RetryPolicy.Failure.fromStatusCode(400), RetryPolicy.Failure.CLIENT);
+        assertFalse(RetryPolicy.Failure.CLIENT.isRetryable());
+        assertTrue(RetryPolicy.Failure.NETWORK.isRetryable());
+    }
+
+    @Test
+    public void testBackoffGrowsWithFailures() {
+        RetryPolicy policy = new RetryPolicy(preferences);
+        assertEquals(policy.getRemainingDelayMillis(), 0);
+
+        for (int i = 0; i < 30; ++i) {
+            long delay = policy.onFailure(RetryPolicy.Failure.SERVER, -1);
+            assertTrue(delay >= 0);
+            assertTrue(delay < Math.min(RetryPolicy.MAX_DELAY_MILLIS, RetryPolicy.BASE_DELAY_MILLIS << Math.min(i, 20)));
+        }
+        assertEquals(policy.onFailure(RetryPolicy.Failure.CLIENT, -1), -1);
+
+        policy.onSuccess();
+        assertEquals(policy.getRemainingDelayMillis(), 0);
+    }
+
+    @Test
+    public void testHonoursRetryAfterAcrossInstances() {
+        RetryPolicy policy = new RetryPolicy(preferences);
+        assertEquals(policy.onFailure(RetryPolicy.Failure.THROTTLED, 60 * 1000), 60 * 1000);
+
+        long remaining = new RetryPolicy(preferences).getRemainingDelayMillis();
+        assertTrue(remaining > 50 * 1000 && remaining <= 60 * 1000);
+    }
+}
@@ -1,18 +1,34 @@
 package com.logunify.logging.android;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 
 import com.logunify.logging.event.Event;
 import com.logunify.logging.event.EventRecord;
+import com.logunify.logging.http.HttpClient;
 import com.test_project.UserActivitySchema;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class SqliteEventQueueTest {
     SqliteEventQueue queue;
@@ -56,6 +72,58 @@ public class SqliteEventQueueTest {
         assertEquals(queue.size(), 2);
     }
 
+    @Test
+    public void testPayloadIsStoredAsBytes() {
+        queue.enqueue(event1);
+
+        EventRecord eventRecord = queue.peek(1).get(0);
+        assertArrayEquals(eventRecord.getPayload(), ((UserActivitySchema.UserActivity) event1).toByteArray());
+        assertEquals(eventRecord.getSerializedEvent(), event1.serialize());
+    }
+
+    @Test
+    public void testNamesAreShared() {
+        queue.enqueue(event1);
+        queue.enqueue(event2);
+
+        List<EventRecord> eventRecords = queue.peek(2);
+        assertSame(eventRecords.get(0).getProjectName(), eventRecords.get(1).getProjectName());
+        assertSame(eventRecords.get(0).getSchemaName(), eventRecords.get(1).getSchemaName());
+    }
+
+    @Test
+    public void testDictionaryLookupsDoNotWaitForTheDatabase() throws InterruptedException {
+        queue.enqueue(event1);
+        SQLiteDatabase db = SqliteEventQueue.EventsDB.getInstance(InstrumentationRegistry.getInstrumentation().getTargetContext())
+                .getWritableDatabase();
+        // Loads the names queued so far
+        EventNameDictionary dictionary = new EventNameDictionary(db);
+        int projectId = dictionary.idOf(event1.getProjectName());
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            db.beginTransaction();
+            try {
+                locked.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                db.endTransaction();
+            }
+        });
+        holder.start();
+        assertTrue(locked.await(1, TimeUnit.SECONDS));
+
+        long start = SystemClock.elapsedRealtime();
+        assertEquals(dictionary.nameOf(projectId), event1.getProjectName());
+        assertEquals(dictionary.idOf(event1.getProjectName()), projectId);
+        assertTrue(SystemClock.elapsedRealtime() - start < 1000);
+        release.countDown();
+        holder.join();
+    }
+
     @Test
     public void testRemove() {
         queue.enqueue(event1);
@@ -74,4 +142,270 @@ public class SqliteEventQueueTest {
         queue.remove(1);
         assertEquals(queue.size(), 0);
     }
+
+    @Test
+    public void testAck() {
+        queue.enqueue(event1);
+        queue.enqueue(event2);
+        List<EventRecord> eventRecords = queue.peek(1);
+        queue.enqueue(event1);
+
+        assertEquals(queue.ack(eventRecords.get(0).getId()), 1);
+        assertEquals(queue.size(), 2);
+
+        eventRecords = queue.peek(2);
+        assertTrue(eventRecords.get(0).getId() < eventRecords.get(1).getId());
+        assertEquals(eventRecords.get(0).getSerializedEvent(), event2.serialize());
+
+        // acknowledging an id twice is a no-op
+        assertEquals(queue.ack(eventRecords.get(0).getId()), 1);
+        assertEquals(queue.ack(eventRecords.get(0).getId()), 0);
+        assertEquals(queue.size(), 1);
+    }
+
+    @Test
+    public void testClaimAssignsStableIds() {
+        queue.enqueue(event1);
+        queue.enqueue(event2);
+        queue.enqueue(event1);
+
+        List<EventRecord> claimed = queue.claim("a", 2);
+        assertNotNull(claimed.get(0).getEventId());
+        assertNotEquals(claimed.get(0).getEventId(), claimed.get(1).getEventId());
+        assertNotNull(HttpClient.idempotencyKey(claimed));
+
+        // Claiming the same events again, as after a failed upload, gives the same ids and key
+        queue.release("a");
+        List<EventRecord> reclaimed = queue.claim("b", 2);
+        assertEquals(reclaimed.get(0).getEventId(), claimed.get(0).getEventId());
+        assertEquals(reclaimed.get(1).getEventId(), claimed.get(1).getEventId());
+        assertEquals(HttpClient.idempotencyKey(reclaimed), HttpClient.idempotencyKey(claimed));
+
+        // A different set of events has a different key
+        queue.release("b");
+        List<EventRecord> larger = queue.claim("c", 3);
+        assertEquals(larger.get(0).getEventId(), claimed.get(0).getEventId());
+        assertNotEquals(HttpClient.idempotencyKey(larger), HttpClient.idempotencyKey(claimed));
+    }
+
+    @Test
+    public void testPartialSendChangesIdempotencyKey() {
+        for (int i = 0; i < 4; ++i) {
+            queue.enqueue(i % 2 == 0 ? event1 : event2);
+        }
+
+        // The first half of the claim is sent, the rest is released and claimed again
+        List<EventRecord> claimed = queue.claim("a", 4);
+        List<EventRecord> sent = claimed.subList(0, 2);
+        assertEquals(queue.ack("a", sent.get(1).getId()), 2);
+        queue.release("a");
+        List<EventRecord> reclaimed = queue.claim("b", 4);
+
+        assertEquals(reclaimed.size(), 2);
+        assertEquals(reclaimed.get(0).getEventId(), claimed.get(2).getEventId());
+        assertNotEquals(HttpClient.idempotencyKey(reclaimed), HttpClient.idempotencyKey(sent));
+        assertEquals(HttpClient.idempotencyKey(reclaimed), HttpClient.idempotencyKey(claimed.subList(2, 4)));
+    }
+
+    @Test
+    public void testClaimSkipsLeasedEvents() {
+        queue.enqueue(event1);
+        queue.enqueue(event2);
+        queue.enqueue(event1);
+
+        List<EventRecord> claimedByA = queue.claim("a", 2);
+        assertEquals(claimedByA.size(), 2);
+        assertEquals(claimedByA.get(1).getSerializedEvent(), event2.serialize());
+
+        List<EventRecord> claimedByB = queue.claim("b", 2);
+        assertEquals(claimedByB.size(), 1);
+        assertTrue(claimedByB.get(0).getId() > claimedByA.get(1).getId());
+
+        // b acknowledging a higher id must not remove what a is still sending
+        assertEquals(queue.ack("b", claimedByB.get(0).getId()), 1);
+        assertEquals(queue.size(), 2);
+
+        // once released, a's events can be claimed again
+        assertEquals(queue.claim("b", 2).size(), 0);
+        queue.release("a");
+        assertEquals(queue.claim("b", 2).size(), 2);
+        assertEquals(queue.ack("a", claimedByA.get(1).getId()), 0);
+        assertEquals(queue.ack("b", claimedByA.get(1).getId()), 2);
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testEnqueueAll() {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < SqliteEventQueue.MAX_EVENTS_PER_TRANSACTION + 1; ++i) {
+            events.add(i % 2 == 0 ? event1 : event2);
+        }
+        queue.enqueueAll(events);
+        assertEquals(queue.size(), events.size());
+
+        List<EventRecord> eventRecords = queue.peek(events.size());
+        assertEquals(eventRecords.size(), events.size());
+        for (int i = 0; i < events.size(); ++i) {
+            assertEquals(eventRecords.get(i).getSerializedEvent(), events.get(i).serialize());
+        }
+    }
+
+    @Test
+    public void testEnqueueAllEvictsOldest() {
+        SqliteEventQueue smallQueue = new SqliteEventQueue(InstrumentationRegistry.getInstrumentation().getTargetContext(), 2);
+        List<Event> events = new ArrayList<>();
+        events.add(event1);
+        events.add(event1);
+        events.add(event2);
+        smallQueue.enqueueAll(events);
+        // Overflowing drops down to the low watermark
+        assertEquals(smallQueue.size(), 1);
+        assertEquals(smallQueue.getDroppedEventCount(), 2);
+        assertEquals(smallQueue.getEvictionCount(), 1);
+
+        List<EventRecord> eventRecords = smallQueue.peek(2);
+        assertEquals(eventRecords.get(0).getSerializedEvent(), event2.serialize());
+    }
+
+    @Test
+    public void testEvictionDropsChunk() {
+        SqliteEventQueue smallQueue = new SqliteEventQueue(InstrumentationRegistry.getInstrumentation().getTargetContext(), 20);
+        smallQueue.setEvictionPolicy(EvictionPolicy.OLDEST, 0.25f);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            events.add(i % 2 == 0 ? event1 : event2);
+        }
+        smallQueue.enqueueAll(events);
+        assertEquals(smallQueue.getEvictionCount(), 0);
+
+        smallQueue.enqueue(event1);
+        assertEquals(smallQueue.size(), 15);
+        assertEquals(smallQueue.getDroppedEventCount(), 6);
+
+        // No eviction until the queue overflows again
+        for (int i = 0; i < 5; ++i) {
+            smallQueue.enqueue(event2);
+        }
+        assertEquals(smallQueue.size(), 20);
+        assertEquals(smallQueue.getEvictionCount(), 1);
+    }
+
+    @Test
+    public void testEvictionPolicies() {
+        SqliteEventQueue smallQueue = new SqliteEventQueue(InstrumentationRegistry.getInstrumentation().getTargetContext(), 2);
+        smallQueue.setEvictionPolicy(EvictionPolicy.NEWEST, 0.5f);
+        smallQueue.enqueue(event1);
+        smallQueue.enqueue(event1);
+        smallQueue.enqueue(event2);
+        assertEquals(smallQueue.size(), 1);
+        assertEquals(smallQueue.peek(1).get(0).getSerializedEvent(), event1.serialize());
+
+        smallQueue.clear();
+        smallQueue.setEvictionPolicy(EvictionPolicy.LOWEST_PRIORITY, 0.5f);
+        Event important = new Event() {
+            @Override
+            public String getSchemaName() {
+                return event1.getSchemaName();
+            }
+
+            @Override
+            public String getProjectName() {
+                return event1.getProjectName();
+            }
+
+            @Override
+            public String serialize() {
+                return event1.serialize();
+            }
+
+            @Override
+            public int getPriority() {
+                return 1;
+            }
+        };
+        smallQueue.enqueue(important);
+        smallQueue.enqueue(event2);
+        smallQueue.enqueue(event2);
+        assertEquals(smallQueue.size(), 1);
+        assertEquals(smallQueue.peek(1).get(0).getSerializedEvent(), event1.serialize());
+    }
+
+    @Test
+    public void testSizeIsSharedAcrossInstances() {
+        SqliteEventQueue other = new SqliteEventQueue(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        queue.enqueue(event1);
+        other.enqueue(event2);
+        assertEquals(queue.size(), 2);
+        assertEquals(other.size(), 2);
+        assertEquals(queue.payloadBytes(),
+                ((UserActivitySchema.UserActivity) event1).toByteArray().length
+                        + ((UserActivitySchema.UserActivity) event2).toByteArray().length);
+
+        other.ack(queue.peek(1).get(0).getId());
+        assertEquals(queue.size(), 1);
+        assertEquals(queue.payloadBytes(), ((UserActivitySchema.UserActivity) event2).toByteArray().length);
+
+        queue.clear();
+        assertEquals(other.size(), 0);
+        assertEquals(other.payloadBytes(), 0);
+    }
+
+    @Test
+    public void testUpgradesVersion1Database() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        String name = "logunify_upgrade_test";
+        context.deleteDatabase(name);
+
+        // Schema shipped in version 1, with Base64 payloads and plain names
+        SQLiteDatabase v1 = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(name), null);
+        v1.execSQL("CREATE TABLE preflight_events (id INTEGER PRIMARY KEY AUTOINCREMENT, serialized_event TEXT, project_name TEXT, schema_name TEXT);");
+        ContentValues values = new ContentValues();
+        values.put("serialized_event", event1.serialize());
+        values.put("project_name", event1.getProjectName());
+        values.put("schema_name", event1.getSchemaName());
+        v1.insert("preflight_events", null, values);
+        values.put("serialized_event", "not Base64!");
+        v1.insert("preflight_events", null, values);
+        values.put("serialized_event", event2.serialize());
+        values.putNull("project_name");
+        v1.insert("preflight_events", null, values);
+        v1.setVersion(1);
+        v1.close();
+
+        SqliteEventQueue.EventsDB helper = new SqliteEventQueue.EventsDB(context, name);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(db.getVersion(), SqliteEventQueue.EventsDB.DATABASE_VERSION);
+
+            EventNameDictionary names = new EventNameDictionary(db);
+            Cursor cursor = db.rawQuery("SELECT id, payload, project_id, schema_id, priority, lease_expires_at FROM preflight_events ORDER BY id", null);
+            try {
+                // The invalid row is dropped, the others keep their ids
+                assertEquals(cursor.getCount(), 2);
+                cursor.moveToNext();
+                assertEquals(cursor.getLong(0), 1);
+                assertArrayEquals(cursor.getBlob(1), ((UserActivitySchema.UserActivity) event1).toByteArray());
+                assertEquals(names.nameOf(cursor.getInt(2)), event1.getProjectName());
+                assertEquals(names.nameOf(cursor.getInt(3)), event1.getSchemaName());
+                assertEquals(cursor.getInt(4), 0);
+                assertEquals(cursor.getLong(5), 0);
+                cursor.moveToNext();
+                assertEquals(cursor.getLong(0), 3);
+                assertArrayEquals(cursor.getBlob(1), ((UserActivitySchema.UserActivity) event2).toByteArray());
+                assertEquals(cursor.getInt(2), EventNameDictionary.NULL_ID);
+                assertEquals(names.nameOf(cursor.getInt(3)), event2.getSchemaName());
+            } finally {
+                cursor.close();
+            }
+
+            // Stats are seeded from the migrated rows and kept up to date by the triggers
+            assertEquals(DatabaseUtils.longForQuery(db, "SELECT event_count FROM queue_stats", null), 2);
+            db.execSQL("DELETE FROM preflight_events WHERE id = 1");
+            assertEquals(DatabaseUtils.longForQuery(db, "SELECT event_count FROM queue_stats", null), 1);
+            assertEquals(new DeadLetterStore(db, 10).size(), 0);
+        } finally {
+            helper.close();
+            context.deleteDatabase(name);
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package com.logunify.logging.android;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.logunify.logging.http.HttpClient;
+import com.test_project.UserActivitySchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+public class UploaderTest {
+    private MockWebServer mockWebServer;
+    private InMemoryEventQueue queue;
+    private DeadLetterStore deadLetters;
+    private SharedPreferences preferences;
+    private Uploader uploader;
+
+    @Before
+    public void setUp() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        preferences = context.getSharedPreferences("logunify_uploader_test", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+
+        queue = new InMemoryEventQueue(100);
+        for (int i = 0; i < 2; ++i) {
+            queue.enqueue(UserActivitySchema.UserActivity.newBuilder()
+                    .setEvent(UserActivitySchema.Event.CLICK)
+                    .setSessionId(UUID.randomUUID().toString())
+                    .setUserId("uid")
+                    .build());
+        }
+        deadLetters = new DeadLetterStore(SqliteEventQueue.EventsDB.getInstance(context).getWritableDatabase(), 10);
+        deadLetters.clear();
+        uploader = createUploader(new HttpClient(mockWebServer.url("").toString(), "key"));
+    }
+
+    private Uploader createUploader(HttpClient client) {
+        return new Uploader("test", client,
+                new AppMetadata(1, "1.0", "installation"), queue,
+                new AdaptiveBatchSizer(preferences, AdaptiveBatchSizer.DEFAULT_BYTE_BUDGET), new RetryPolicy(preferences),
+                deadLetters, new CircuitBreaker(preferences), 1, () -> false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void testRequestRejectionKeepsEvents() {
+        // No per-event results, e.g. the receiver does not understand the envelope
+        for (int i = 0; i < 3; ++i) {
+            mockWebServer.enqueue(new MockResponse().setResponseCode(400).setHeader("Retry-After", "0").setBody("bad request"));
+        }
+
+        assertEquals(uploader.run(), Uploader.Outcome.RETRY);
+        assertEquals(mockWebServer.getRequestCount(), 3);
+        assertEquals(deadLetters.size(), 0);
+        assertEquals(queue.size(), 2);
+    }
+
+    @Test
+    public void testEventRejectionDeadLettersReportedEvents() {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(400).setBody(
+                "{\"errors\": true, \"items\": [{\"status\": 201}, {\"status\": 400, \"error\": \"invalid\"}]}"));
+
+        assertEquals(uploader.run(), Uploader.Outcome.SUCCESS);
+        assertEquals(deadLetters.size(), 1);
+        assertEquals(deadLetters.peek(1).get(0).getError(), "invalid");
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void testRetriesSingleEventAfterTimeout() {
+        queue.remove(1);
+        OkHttpClient client = new OkHttpClient.Builder().readTimeout(200, TimeUnit.MILLISECONDS).build();
+        uploader = createUploader(new HttpClient(mockWebServer.url("").toString(), "key", client));
+        mockWebServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        assertEquals(uploader.run(), Uploader.Outcome.SUCCESS);
+        assertEquals(mockWebServer.getRequestCount(), 2);
+        assertEquals(queue.size(), 0);
+    }
+}
@@ -1,7 +1,11 @@
 package com.logunify.logging.http;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.logunify.logging.android.AppMetadata;
@@ -17,9 +21,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import okhttp3.OkHttpClient;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
 
 public class HttpClientTest {
     private MockWebServer mockWebServer;
@@ -60,12 +67,206 @@ public class HttpClientTest {
         jsonRequestBody.put(HttpClient.PAYLOAD_KEY_EVENTS, jsonArray);
         jsonRequestBody.put(HttpClient.PAYLOAD_KEY_APP_METADATA, appMetadata.toJSON());
 
+        // Below the compression threshold
+        assertNull(recordedRequest.getHeader("Content-Encoding"));
         assertEquals(
                 recordedRequest.getBody().readUtf8(),
                 jsonRequestBody.toString()
         );
     }
 
+    @Test
+    public void testSendEventsCompressed() throws IOException, InterruptedException {
+        httpClient.setCompression(CompressionCodec.GZIP, 0);
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        assertTrue(httpClient.sendEvents(events, appMetadata).isSuccessful());
+        RecordedRequest recordedRequest = mockWebServer.takeRequest();
+
+        assertEquals(recordedRequest.getHeader("Content-Encoding"), "gzip");
+        assertEquals(httpClient.getWireBytesSent(), recordedRequest.getBodySize());
+        Buffer decompressed = new Buffer();
+        decompressed.writeAll(new GzipSource(recordedRequest.getBody()));
+        Buffer payload = new Buffer();
+        httpClient.buildRequestBody(events, appMetadata).writeTo(payload);
+        assertEquals(httpClient.getRawBytesSent(), payload.size());
+        assertEquals(decompressed.readUtf8(), payload.readUtf8());
+    }
+
+    @Test
+    public void testFallsBackToUncompressed() throws IOException, InterruptedException {
+        httpClient.setCompression(CompressionCodec.DEFLATE, 0);
+        mockWebServer.enqueue(new MockResponse().setResponseCode(415));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+
+        assertTrue(httpClient.sendEvents(events, appMetadata).isSuccessful());
+        assertEquals(mockWebServer.takeRequest().getHeader("Content-Encoding"), "deflate");
+        assertNull(mockWebServer.takeRequest().getHeader("Content-Encoding"));
+
+        // Compression stays disabled
+        assertTrue(httpClient.sendEvents(events, appMetadata).isSuccessful());
+        assertNull(mockWebServer.takeRequest().getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void testRequestBodyMatchesJson() throws IOException, JSONException {
+        events.add(new EventRecord(3, new byte[]{(byte) 0xfb, (byte) 0xff, 0x10}, "test_schema", null));
+
+        Buffer body = new Buffer();
+        httpClient.buildRequestBody(events, appMetadata).writeTo(body);
+
+        JSONArray jsonArray = new JSONArray();
+        for (EventRecord event : events) {
+            jsonArray.put(event.toJson());
+        }
+        JSONObject jsonRequestBody = new JSONObject();
+        jsonRequestBody.put(HttpClient.PAYLOAD_KEY_EVENTS, jsonArray);
+        jsonRequestBody.put(HttpClient.PAYLOAD_KEY_APP_METADATA, appMetadata.toJSON());
+        assertEquals(body.readUtf8(), jsonRequestBody.toString());
+    }
+
+    @Test
+    public void testSendEventsAsProtobuf() throws IOException {
+        StandInReceiver receiver = new StandInReceiver(true);
+        mockWebServer.setDispatcher(receiver);
+        List<EventRecord> records = createBinaryRecords();
+        httpClient.setPayloadFormat(PayloadFormat.PROTOBUF);
+        httpClient.setCompression(CompressionCodec.GZIP, 0);
+
+        assertTrue(httpClient.sendEvents(records, appMetadata).isSuccessful());
+        assertEquals(receiver.batches.size(), 1);
+        assertBatch(receiver.batches.get(0), PayloadFormat.PROTOBUF, records);
+
+        // Smaller than the same batch in JSON
+        long protobufBytes = httpClient.getRawBytesSent();
+        httpClient.setPayloadFormat(PayloadFormat.JSON);
+        assertTrue(httpClient.sendEvents(records, appMetadata).isSuccessful());
+        assertBatch(receiver.batches.get(1), PayloadFormat.JSON, records);
+        assertTrue(protobufBytes < httpClient.getRawBytesSent() - protobufBytes);
+    }
+
+    @Test
+    public void testProtobufFallsBackToJson() throws IOException {
+        StandInReceiver receiver = new StandInReceiver(false);
+        mockWebServer.setDispatcher(receiver);
+        List<EventRecord> records = createBinaryRecords();
+        httpClient.setPayloadFormat(PayloadFormat.PROTOBUF);
+
+        assertTrue(httpClient.sendEvents(records, appMetadata).isSuccessful());
+        assertTrue(httpClient.sendEvents(records, appMetadata).isSuccessful());
+        // One rejected request, then JSON only
+        assertEquals(mockWebServer.getRequestCount(), 3);
+        assertEquals(receiver.batches.size(), 2);
+        assertBatch(receiver.batches.get(0), PayloadFormat.JSON, records);
+        assertBatch(receiver.batches.get(1), PayloadFormat.JSON, records);
+    }
+
+    private static List<EventRecord> createBinaryRecords() {
+        List<EventRecord> records = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            byte[] payload = new byte[40];
+            for (int j = 0; j < payload.length; ++j) {
+                payload[j] = (byte) (i * j);
+            }
+            records.add(new EventRecord(i + 1, payload, i % 2 == 0 ? "schema_a" : "schema_b", i == 0 ? null : "test_project"));
+        }
+        return records;
+    }
+
+    @Test
+    public void testRetriesAreDeduplicated() {
+        StandInReceiver receiver = new StandInReceiver(true);
+        receiver.lostResponses = 1;
+        mockWebServer.setDispatcher(receiver);
+        List<EventRecord> records = new ArrayList<>();
+        for (EventRecord record : createBinaryRecords()) {
+            records.add(new EventRecord(record.getId(), "iid-" + record.getId(), record.getPayload(),
+                    record.getSchemaName(), record.getProjectName()));
+        }
+        httpClient.setPayloadFormat(PayloadFormat.PROTOBUF);
+
+        // Sent again after the first response was lost, as the worker does
+        boolean sent = false;
+        for (int attempt = 0; attempt < 3 && !sent; ++attempt) {
+            try {
+                sent = httpClient.sendEvents(records, appMetadata).isSuccessful();
+            } catch (IOException e) {
+                // The receiver committed the batch anyway
+            }
+        }
+        assertTrue(sent);
+        assertTrue(receiver.batches.size() >= 2);
+        String idempotencyKey = HttpClient.idempotencyKey(records);
+        assertNotNull(idempotencyKey);
+        for (StandInReceiver.Batch batch : receiver.batches) {
+            assertEquals(batch.idempotencyKey, idempotencyKey);
+            assertEquals(batch.eventIds.get(0), records.get(0).getEventId());
+        }
+        assertEquals(receiver.committedEventIds.size(), records.size());
+        assertEquals(receiver.duplicateEvents, records.size() * (receiver.batches.size() - 1));
+
+        // Parts of the batch are different content, with different keys
+        assertNotEquals(HttpClient.idempotencyKey(records.subList(0, 5)), idempotencyKey);
+        assertNotEquals(HttpClient.idempotencyKey(records.subList(5, 10)), HttpClient.idempotencyKey(records.subList(0, 5)));
+        assertNull(HttpClient.idempotencyKey(createBinaryRecords()));
+    }
+
+    private void assertBatch(StandInReceiver.Batch batch, PayloadFormat format, List<EventRecord> records) {
+        assertEquals(batch.format, format);
+        assertEquals(batch.appMetadata.getVersionCode(), appMetadata.getVersionCode());
+        assertEquals(batch.appMetadata.getVersionName(), appMetadata.getVersionName());
+        assertEquals(batch.appMetadata.getInstallationID(), appMetadata.getInstallationID());
+        assertEquals(batch.events.size(), records.size());
+        for (int i = 0; i < records.size(); ++i) {
+            assertArrayEquals(batch.events.get(i).getPayload(), records.get(i).getPayload());
+            assertEquals(batch.events.get(i).getSchemaName(), records.get(i).getSchemaName());
+            assertEquals(batch.events.get(i).getProjectName(), records.get(i).getProjectName());
+        }
+    }
+
+    @Test
+    public void testUsesSharedClient() throws IOException, InterruptedException {
+        OkHttpClient previous = HttpClient.getSharedClient();
+        HttpClient.setSharedClient(new OkHttpClient.Builder()
+                .addInterceptor(chain -> chain.proceed(chain.request().newBuilder().addHeader("X-App", "test").build()))
+                .build());
+        try {
+            mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("{}"));
+            assertTrue(httpClient.sendEvents(events, appMetadata).isSuccessful());
+            assertEquals(mockWebServer.takeRequest().getHeader("X-App"), "test");
+        } finally {
+            HttpClient.setSharedClient(previous);
+        }
+    }
+
+    @Test
+    public void testParsesEventResults() throws IOException {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody(
+                "{\"errors\": true, \"items\": [{\"index\": {\"status\": 201}}, {\"status\": 400, \"error\": \"invalid\"}]}"));
+
+        ApiResponse apiResponse = httpClient.sendEvents(events, appMetadata);
+        assertTrue(apiResponse.isSuccessful());
+        assertTrue(apiResponse.hasError());
+        assertEquals(apiResponse.getEventResultCount(), 2);
+        assertEquals(apiResponse.getEventStatus(0), 201);
+        assertEquals(apiResponse.getEventStatus(1), 400);
+        assertEquals(apiResponse.getEventError(1), "invalid");
+        assertEquals(apiResponse.getErrors().size(), 1);
+        assertEquals(apiResponse.getErrors().get("1"), "invalid");
+    }
+
+    @Test
+    public void testParsesRetryAfter() throws IOException {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "120"));
+
+        ApiResponse apiResponse = httpClient.sendEvents(events, appMetadata);
+        assertEquals(apiResponse.getRetryAfterMillis(), 120 * 1000);
+        // Without results per event, every event has the status of the response
+        assertEquals(apiResponse.getEventResultCount(), 0);
+        assertEquals(apiResponse.getEventStatus(1), 429);
+    }
+
     @Test
     public void testSendEventsUnsuccessfully() throws IOException {
         mockWebServer.enqueue(new MockResponse().setResponseCode(500).setBody("error"));
@@ -0,0 +1,208 @@
+package com.logunify.logging.http;
+
+import com.google.protobuf.CodedInputStream;
+import com.logunify.logging.android.AppMetadata;
+import com.logunify.logging.event.EventRecord;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * Receiver for {@link okhttp3.mockwebserver.MockWebServer} decoding bulk requests in every
+ * {@link PayloadFormat}, optionally compressed. Like the real receiver, it drops events whose id
+ * it has already committed.
+ */
+class StandInReceiver extends Dispatcher {
+    static class Batch {
+        final PayloadFormat format;
+        final AppMetadata appMetadata;
+        final List<EventRecord> events;
+        final List<String> eventIds;
+        String idempotencyKey;
+
+        Batch(PayloadFormat format, AppMetadata appMetadata, List<EventRecord> events, List<String> eventIds) {
+            this.format = format;
+            this.appMetadata = appMetadata;
+            this.events = events;
+            this.eventIds = eventIds;
+        }
+    }
+
+    private final boolean acceptsProtobuf;
+    final List<Batch> batches = new ArrayList<>();
+    final Set<String> committedEventIds = new HashSet<>();
+    int duplicateEvents;
+    // Number of upcoming requests committed without the response reaching the client
+    int lostResponses;
+
+    StandInReceiver(boolean acceptsProtobuf) {
+        this.acceptsProtobuf = acceptsProtobuf;
+    }
+
+    @Override
+    public synchronized MockResponse dispatch(RecordedRequest request) {
+        String contentType = request.getHeader("Content-Type");
+        PayloadFormat format = contentType != null && contentType.startsWith(PayloadFormat.PROTOBUF.getMediaType().toString())
+                ? PayloadFormat.PROTOBUF
+                : PayloadFormat.JSON;
+        if (format == PayloadFormat.PROTOBUF && !acceptsProtobuf) {
+            return new MockResponse().setResponseCode(415);
+        }
+        try {
+            InputStream body = decompress(request);
+            Batch batch = format == PayloadFormat.PROTOBUF ? decodeProtobuf(body) : decodeJson(body);
+            batch.idempotencyKey = request.getHeader(HttpClient.HEADER_IDEMPOTENCY_KEY);
+            batches.add(batch);
+            for (String eventId : batch.eventIds) {
+                if (eventId != null && !committedEventIds.add(eventId)) {
+                    duplicateEvents++;
+                }
+            }
+            if (lostResponses > 0) {
+                lostResponses--;
+                return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+            }
+            return new MockResponse().setResponseCode(200).setBody("{}");
+        } catch (IOException | JSONException e) {
+            return new MockResponse().setResponseCode(400).setBody(String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static InputStream decompress(RecordedRequest request) throws IOException {
+        InputStream body = request.getBody().inputStream();
+        String encoding = request.getHeader("Content-Encoding");
+        if ("gzip".equals(encoding)) {
+            return new GZIPInputStream(body);
+        } else if ("deflate".equals(encoding)) {
+            return new InflaterInputStream(body);
+        }
+        return body;
+    }
+
+    private static Batch decodeJson(InputStream body) throws IOException, JSONException {
+        JSONObject json = new JSONObject(new String(readAll(body), StandardCharsets.UTF_8));
+        JSONObject metadata = json.getJSONObject(HttpClient.PAYLOAD_KEY_APP_METADATA);
+        JSONArray eventsJson = json.getJSONArray(HttpClient.PAYLOAD_KEY_EVENTS);
+        List<EventRecord> events = new ArrayList<>();
+        List<String> eventIds = new ArrayList<>();
+        for (int i = 0; i < eventsJson.length(); ++i) {
+            JSONObject event = eventsJson.getJSONObject(i);
+            events.add(new EventRecord(
+                    event.getString("serializedEvent"),
+                    event.optString("schemaName", null),
+                    event.optString("projectName", null)));
+            eventIds.add(event.optString("eventId", null));
+        }
+        return new Batch(PayloadFormat.JSON,
+                new AppMetadata(metadata.getInt("versionCode"), metadata.optString("versionName", null), metadata.optString("installationId", null)),
+                events, eventIds);
+    }
+
+    private static Batch decodeProtobuf(InputStream body) throws IOException {
+        CodedInputStream input = CodedInputStream.newInstance(body);
+        List<String> names = new ArrayList<>();
+        List<int[]> nameIds = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        List<String> eventIds = new ArrayList<>();
+        AppMetadata appMetadata = null;
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            switch (tag >>> 3) {
+                case 1: {
+                    int limit = input.pushLimit(input.readRawVarint32());
+                    int versionCode = 0;
+                    String versionName = null;
+                    String installationId = null;
+                    while ((tag = input.readTag()) != 0) {
+                        switch (tag >>> 3) {
+                            case 1:
+                                versionCode = input.readInt32();
+                                break;
+                            case 2:
+                                versionName = input.readString();
+                                break;
+                            case 3:
+                                installationId = input.readString();
+                                break;
+                            default:
+                                input.skipField(tag);
+                        }
+                    }
+                    input.popLimit(limit);
+                    appMetadata = new AppMetadata(versionCode, versionName, installationId);
+                    break;
+                }
+                case 2:
+                    names.add(input.readString());
+                    break;
+                case 3: {
+                    int limit = input.pushLimit(input.readRawVarint32());
+                    int[] ids = new int[2];
+                    byte[] payload = new byte[0];
+                    String eventId = null;
+                    while ((tag = input.readTag()) != 0) {
+                        switch (tag >>> 3) {
+                            case 1:
+                                ids[0] = input.readUInt32();
+                                break;
+                            case 2:
+                                ids[1] = input.readUInt32();
+                                break;
+                            case 3:
+                                payload = input.readByteArray();
+                                break;
+                            case 4:
+                                eventId = input.readString();
+                                break;
+                            default:
+                                input.skipField(tag);
+                        }
+                    }
+                    input.popLimit(limit);
+                    nameIds.add(ids);
+                    payloads.add(payload);
+                    eventIds.add(eventId);
+                    break;
+                }
+                default:
+                    input.skipField(tag);
+            }
+        }
+
+        List<EventRecord> events = new ArrayList<>();
+        for (int i = 0; i < payloads.size(); ++i) {
+            int[] ids = nameIds.get(i);
+            events.add(new EventRecord(EventRecord.NO_ID, payloads.get(i),
+                    ids[0] == 0 ? null : names.get(ids[0] - 1),
+                    ids[1] == 0 ? null : names.get(ids[1] - 1)));
+        }
+        return new Batch(PayloadFormat.PROTOBUF, appMetadata, events, eventIds);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
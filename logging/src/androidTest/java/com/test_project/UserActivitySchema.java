@@ -3258,6 +3258,11 @@ public final class UserActivitySchema {
             return new String(java.util.Base64.getEncoder().encode(toByteArray()));
         }
 
+        @Override
+        public void serializeTo(java.io.OutputStream out) throws java.io.IOException {
+            writeTo(out);
+        }
+
         // @@protoc_insertion_point(class_scope:com.test_project.UserActivity)
         private static final com.test_project.UserActivitySchema.UserActivity DEFAULT_INSTANCE;
 
@@ -0,0 +1,116 @@
+package com.logunify.logging.android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.logunify.logging.event.EventRecord;
+
+import java.util.List;
+
+/**
+ * Picks how many events go in one bulk request. The batch grows while requests are fast, shrinks
+ * when they are slow, time out or are rejected as too large, and never exceeds a byte budget. The
+ * learned size is persisted, so the next worker run starts from it.
+ */
+class AdaptiveBatchSizer {
+    private static final String PREFERENCES_NAME = "logunify_batch_sizer";
+    static final String PREFERENCE_KEY_BATCH_SIZE = "batchSize";
+
+    static final int MIN_BATCH_SIZE = 1;
+    static final int MAX_BATCH_SIZE = 500;
+    static final int DEFAULT_BATCH_SIZE = 50;
+    /**
+     * Max uncompressed size of a request, events are Base64 encoded in JSON.
+     */
+    static final long DEFAULT_BYTE_BUDGET = 256 * 1024;
+    /**
+     * Requests slower than this shrink the batch, requests faster than half of it grow it.
+     */
+    static final long TARGET_LATENCY_MILLIS = 2000;
+
+    private static AdaptiveBatchSizer instance;
+
+    private final SharedPreferences preferences;
+    private volatile long byteBudget;
+    private int batchSize;
+
+    AdaptiveBatchSizer(SharedPreferences preferences, long byteBudget) {
+        if (byteBudget <= 0) {
+            throw new IllegalArgumentException("byteBudget must be greater than 0");
+        }
+        this.preferences = preferences;
+        this.byteBudget = byteBudget;
+        this.batchSize = clamp(preferences.getInt(PREFERENCE_KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+    }
+
+    /**
+     * Returns the sizer shared by the workers of this process.
+     *
+     * @param byteBudget max uncompressed size of a request, replaces the budget of earlier callers
+     */
+    static synchronized AdaptiveBatchSizer getInstance(Context context, long byteBudget) {
+        if (instance == null) {
+            instance = new AdaptiveBatchSizer(
+                    context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE), byteBudget);
+        } else if (byteBudget > 0) {
+            instance.byteBudget = byteBudget;
+        }
+        return instance;
+    }
+
+    /**
+     * Returns how many events to claim for the next request.
+     */
+    synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns the longest prefix of the given events fitting in the byte budget, at least one
+     * event.
+     */
+    List<EventRecord> fit(List<EventRecord> events) {
+        long bytes = 0;
+        for (int i = 0; i < events.size(); ++i) {
+            bytes += events.get(i).getSerializedEventLength();
+            if (bytes > byteBudget && i > 0) {
+                return events.subList(0, i);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Records a successful request.
+     *
+     * @param events        number of events sent
+     * @param latencyMillis round trip time of the request
+     */
+    synchronized void onSuccess(int events, long latencyMillis) {
+        if (latencyMillis > TARGET_LATENCY_MILLIS) {
+            update(batchSize * 3 / 4);
+        } else if (latencyMillis <= TARGET_LATENCY_MILLIS / 2 && events >= batchSize) {
+            // Partial batches say nothing about whether a larger one would be fast.
+            update(batchSize + Math.max(1, batchSize / 2));
+        }
+    }
+
+    /**
+     * Records a request which timed out or was rejected as too large.
+     */
+    synchronized void onTooLarge() {
+        update(batchSize / 2);
+    }
+
+    private void update(int newBatchSize) {
+        newBatchSize = clamp(newBatchSize);
+        if (newBatchSize != batchSize) {
+            batchSize = newBatchSize;
+            preferences.edit().putInt(PREFERENCE_KEY_BATCH_SIZE, batchSize).apply();
+        }
+    }
+
+    private static int clamp(int batchSize) {
+        return Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, batchSize));
+    }
+}
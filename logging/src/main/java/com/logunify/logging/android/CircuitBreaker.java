@@ -0,0 +1,204 @@
+package com.logunify.logging.android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Stops uploads while the receiver keeps failing. The breaker opens once enough of the recent
+ * requests failed, rejects requests while open, then lets a single probe request through: its
+ * success closes the breaker, its failure opens it again for twice as long.
+ * <p>
+ * The state is persisted, so a new worker run or a restarted app stays off a failing receiver.
+ */
+public class CircuitBreaker {
+    public enum State {
+        /**
+         * Requests go through.
+         */
+        CLOSED,
+        /**
+         * Requests are rejected and no worker is scheduled.
+         */
+        OPEN,
+        /**
+         * One probe request decides whether to close or open again.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Receives state changes, on the thread which made the request.
+     */
+    public interface Listener {
+        void onStateChanged(State state);
+    }
+
+    private static final String PREFERENCES_NAME = "logunify_circuit_breaker";
+    private static final String PREFERENCE_KEY_OPEN = "open";
+    static final String PREFERENCE_KEY_OPEN_UNTIL = "openUntil";
+    private static final String PREFERENCE_KEY_OPEN_DURATION = "openDuration";
+    private static final String PREFERENCE_KEY_OUTCOMES = "outcomes";
+    private static final String PREFERENCE_KEY_RECORDED = "recorded";
+
+    /**
+     * Number of recent requests the failure rate is computed over.
+     */
+    static final int WINDOW_SIZE = 10;
+    /**
+     * Failure rate is only considered after this many requests.
+     */
+    static final int MIN_REQUESTS = 4;
+    static final float FAILURE_RATE_THRESHOLD = 0.5f;
+    static final long MIN_OPEN_DURATION_MILLIS = 60 * 1000;
+    static final long MAX_OPEN_DURATION_MILLIS = 60 * 60 * 1000;
+
+    private static CircuitBreaker instance;
+
+    private final SharedPreferences preferences;
+    private volatile Listener listener;
+    private boolean open;
+    private long openUntil;
+    private long openDuration;
+    // Last WINDOW_SIZE outcomes, a set bit is a failure
+    private int outcomes;
+    private int recorded;
+    private boolean probeInFlight;
+    private State lastReportedState;
+
+    CircuitBreaker(SharedPreferences preferences) {
+        this.preferences = preferences;
+        this.open = preferences.getBoolean(PREFERENCE_KEY_OPEN, false);
+        this.openUntil = preferences.getLong(PREFERENCE_KEY_OPEN_UNTIL, 0);
+        this.openDuration = preferences.getLong(PREFERENCE_KEY_OPEN_DURATION, MIN_OPEN_DURATION_MILLIS);
+        this.outcomes = preferences.getInt(PREFERENCE_KEY_OUTCOMES, 0);
+        this.recorded = preferences.getInt(PREFERENCE_KEY_RECORDED, 0);
+        this.lastReportedState = getState();
+    }
+
+    /**
+     * Returns the breaker shared by the logger and the workers of this process.
+     */
+    static synchronized CircuitBreaker getInstance(Context context) {
+        if (instance == null) {
+            instance = new CircuitBreaker(context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE));
+        }
+        return instance;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized State getState() {
+        if (!open) {
+            return State.CLOSED;
+        }
+        return System.currentTimeMillis() < openUntil ? State.OPEN : State.HALF_OPEN;
+    }
+
+    /**
+     * Returns how long the breaker stays open, 0 if it is not open.
+     */
+    synchronized long getRemainingOpenMillis() {
+        return open ? Math.max(0, openUntil - System.currentTimeMillis()) : 0;
+    }
+
+    /**
+     * Returns whether a request may be sent now. In half-open state only one caller gets true
+     * until its outcome is recorded or it is aborted.
+     */
+    boolean allowRequest() {
+        State state;
+        boolean allowed;
+        synchronized (this) {
+            state = getState();
+            allowed = state == State.CLOSED || (state == State.HALF_OPEN && !probeInFlight);
+            if (allowed && state == State.HALF_OPEN) {
+                probeInFlight = true;
+            }
+        }
+        notifyListener(state);
+        return allowed;
+    }
+
+    /**
+     * Records a request which reached the receiver.
+     */
+    void onSuccess() {
+        synchronized (this) {
+            probeInFlight = false;
+            if (open) {
+                open = false;
+                openDuration = MIN_OPEN_DURATION_MILLIS;
+                outcomes = 0;
+                recorded = 0;
+            } else {
+                record(false);
+            }
+            save();
+        }
+        notifyListener(State.CLOSED);
+    }
+
+    /**
+     * Records a request which failed because of the network or the receiver.
+     */
+    void onFailure() {
+        State state;
+        synchronized (this) {
+            if (open) {
+                // Failed probe
+                if (probeInFlight) {
+                    openDuration = Math.min(MAX_OPEN_DURATION_MILLIS, openDuration * 2);
+                    openUntil = System.currentTimeMillis() + openDuration;
+                }
+            } else {
+                record(true);
+                if (recorded >= MIN_REQUESTS && Integer.bitCount(outcomes) >= FAILURE_RATE_THRESHOLD * recorded) {
+                    open = true;
+                    openUntil = System.currentTimeMillis() + openDuration;
+                }
+            }
+            probeInFlight = false;
+            save();
+            state = getState();
+        }
+        notifyListener(state);
+    }
+
+    /**
+     * Records a request which was given up before reaching the network, e.g. because it could not
+     * be built. It does not count as an outcome, but lets another probe through.
+     */
+    synchronized void onAborted() {
+        probeInFlight = false;
+    }
+
+    private void record(boolean failure) {
+        outcomes = ((outcomes << 1) | (failure ? 1 : 0)) & ((1 << WINDOW_SIZE) - 1);
+        recorded = Math.min(WINDOW_SIZE, recorded + 1);
+    }
+
+    private void save() {
+        preferences.edit()
+                .putBoolean(PREFERENCE_KEY_OPEN, open)
+                .putLong(PREFERENCE_KEY_OPEN_UNTIL, openUntil)
+                .putLong(PREFERENCE_KEY_OPEN_DURATION, openDuration)
+                .putInt(PREFERENCE_KEY_OUTCOMES, outcomes)
+                .putInt(PREFERENCE_KEY_RECORDED, recorded)
+                .apply();
+    }
+
+    private void notifyListener(State state) {
+        Listener listener = this.listener;
+        synchronized (this) {
+            if (state == lastReportedState) {
+                return;
+            }
+            lastReportedState = state;
+        }
+        if (listener != null) {
+            listener.onStateChanged(state);
+        }
+    }
+}
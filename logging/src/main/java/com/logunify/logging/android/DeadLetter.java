@@ -0,0 +1,45 @@
+package com.logunify.logging.android;
+
+import com.logunify.logging.event.EventRecord;
+
+/**
+ * Event the receiver rejected permanently, kept for inspection instead of being retried.
+ */
+public class DeadLetter {
+    private final EventRecord record;
+    private final int statusCode;
+    private final String error;
+    private final long rejectedAt;
+
+    DeadLetter(EventRecord record, int statusCode, String error, long rejectedAt) {
+        this.record = record;
+        this.statusCode = statusCode;
+        this.error = error;
+        this.rejectedAt = rejectedAt;
+    }
+
+    public EventRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * Returns the status the receiver answered for the event.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the error the receiver gave for the event, or null.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Returns when the event was rejected, in milliseconds since the epoch.
+     */
+    public long getRejectedAt() {
+        return rejectedAt;
+    }
+}
@@ -0,0 +1,137 @@
+package com.logunify.logging.android;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.logunify.logging.Constants;
+import com.logunify.logging.event.EventRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded store of events the receiver rejected permanently, so they leave the upload queue
+ * instead of blocking it. Oldest entries are dropped once it is full.
+ */
+class DeadLetterStore {
+    static final String TABLE_NAME = "dead_letter_events";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_PAYLOAD = "payload";
+    private static final String COLUMN_SCHEMA_NAME = "schema_name";
+    private static final String COLUMN_PROJECT_NAME = "project_name";
+    private static final String COLUMN_STATUS_CODE = "status_code";
+    private static final String COLUMN_ERROR = "error";
+    private static final String COLUMN_REJECTED_AT = "rejected_at";
+
+    static final int DEFAULT_MAX_SIZE = 500;
+
+    private static DeadLetterStore instance;
+
+    private final SQLiteDatabase db;
+    private final int maxSize;
+    private final SQLiteStatement insertStatement;
+    private final SQLiteStatement trimStatement;
+
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL(String.format(
+                "CREATE TABLE %s (%s INTEGER PRIMARY KEY AUTOINCREMENT, %s BLOB, %s TEXT, %s TEXT, %s INTEGER NOT NULL, %s TEXT, %s INTEGER NOT NULL);",
+                TABLE_NAME, COLUMN_ID, COLUMN_PAYLOAD, COLUMN_SCHEMA_NAME, COLUMN_PROJECT_NAME,
+                COLUMN_STATUS_CODE, COLUMN_ERROR, COLUMN_REJECTED_AT));
+    }
+
+    DeadLetterStore(SQLiteDatabase db, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        this.db = db;
+        this.maxSize = maxSize;
+        this.insertStatement = db.compileStatement(String.format(
+                "INSERT INTO %s (%s, %s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?, ?)",
+                TABLE_NAME, COLUMN_PAYLOAD, COLUMN_SCHEMA_NAME, COLUMN_PROJECT_NAME,
+                COLUMN_STATUS_CODE, COLUMN_ERROR, COLUMN_REJECTED_AT));
+        // Keeps the maxSize newest entries
+        this.trimStatement = db.compileStatement(String.format(
+                "DELETE FROM %s WHERE %s <= (SELECT MAX(%s) FROM %s) - ?",
+                TABLE_NAME, COLUMN_ID, COLUMN_ID, TABLE_NAME));
+    }
+
+    /**
+     * Returns the store shared by the logger and the workers of this process.
+     */
+    static synchronized DeadLetterStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new DeadLetterStore(
+                    SqliteEventQueue.EventsDB.getInstance(context).getWritableDatabase(), DEFAULT_MAX_SIZE);
+        }
+        return instance;
+    }
+
+    /**
+     * Stores a rejected event.
+     *
+     * @param record     the event
+     * @param statusCode status the receiver answered for it
+     * @param error      error the receiver gave for it, or null
+     */
+    synchronized void add(EventRecord record, int statusCode, String error) {
+        Log.w(Constants.LOGGING_TAG, String.format(Utils.DEFAULT_LOCALE,
+                "Event %d of schema %s rejected with status %d: %s", record.getId(), record.getSchemaName(), statusCode, error));
+        db.beginTransactionNonExclusive();
+        try {
+            insertStatement.bindBlob(1, record.getPayload());
+            bindStringOrNull(insertStatement, 2, record.getSchemaName());
+            bindStringOrNull(insertStatement, 3, record.getProjectName());
+            insertStatement.bindLong(4, statusCode);
+            bindStringOrNull(insertStatement, 5, error);
+            insertStatement.bindLong(6, System.currentTimeMillis());
+            insertStatement.executeInsert();
+            trimStatement.bindLong(1, maxSize);
+            trimStatement.executeUpdateDelete();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Returns up to the given number of rejected events, oldest first.
+     */
+    synchronized List<DeadLetter> peek(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("max must be greater than 0");
+        }
+        List<DeadLetter> results = new ArrayList<>();
+        Cursor cursor = db.query(TABLE_NAME,
+                new String[]{COLUMN_ID, COLUMN_PAYLOAD, COLUMN_SCHEMA_NAME, COLUMN_PROJECT_NAME, COLUMN_STATUS_CODE, COLUMN_ERROR, COLUMN_REJECTED_AT},
+                null, null, null, null, COLUMN_ID + " asc", String.valueOf(max));
+        try {
+            while (cursor.moveToNext()) {
+                EventRecord record = new EventRecord(cursor.getLong(0), cursor.getBlob(1), cursor.getString(2), cursor.getString(3));
+                results.add(new DeadLetter(record, cursor.getInt(4), cursor.getString(5), cursor.getLong(6)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return results;
+    }
+
+    synchronized long size() {
+        return DatabaseUtils.queryNumEntries(db, TABLE_NAME);
+    }
+
+    synchronized void clear() {
+        db.execSQL("DELETE FROM " + TABLE_NAME);
+    }
+}
@@ -0,0 +1,105 @@
+package com.logunify.logging.android;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Maps project and schema names to small integer ids, so event rows only carry two integers and
+ * records read back share one canonical string per name.
+ * <p>
+ * Names are never removed, the dictionary only grows with the number of distinct schemas.
+ */
+class EventNameDictionary {
+    static final String TABLE_NAME = "event_names";
+    static final String COLUMN_ID = "id";
+    static final String COLUMN_NAME = "name";
+
+    /**
+     * Id stored for a missing name.
+     */
+    static final int NULL_ID = 0;
+
+    private final SQLiteDatabase db;
+    // Read without a lock, so lookups never wait for a thread holding the database
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, String> names = new ConcurrentHashMap<>();
+
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL(String.format(
+                "CREATE TABLE %s (%s INTEGER PRIMARY KEY, %s TEXT NOT NULL UNIQUE);",
+                TABLE_NAME, COLUMN_ID, COLUMN_NAME));
+    }
+
+    /**
+     * Loads the whole dictionary, so that ids of rows already queued resolve without touching the
+     * database.
+     */
+    EventNameDictionary(SQLiteDatabase db) {
+        this.db = db;
+        Cursor cursor = db.query(TABLE_NAME, new String[]{COLUMN_ID, COLUMN_NAME}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                cache(cursor.getInt(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the id of the given name, adding it to the dictionary if needed. Must not be called
+     * inside a transaction which may be rolled back, or the cached id could point nowhere.
+     */
+    int idOf(String name) {
+        if (name == null) {
+            return NULL_ID;
+        }
+        Integer id = ids.get(name);
+        if (id == null) {
+            // Idempotent, threads adding the same name at once read back the same id
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_NAME, name);
+            db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            id = (int) DatabaseUtils.longForQuery(db,
+                    String.format("SELECT %s FROM %s WHERE %s = ?", COLUMN_ID, TABLE_NAME, COLUMN_NAME),
+                    new String[]{name});
+            cache(id, name);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the canonical name for the given id.
+     */
+    String nameOf(int id) {
+        if (id == NULL_ID) {
+            return null;
+        }
+        String name = names.get(id);
+        if (name == null) {
+            // Only names added by another process since the dictionary was loaded
+            Cursor cursor = db.query(TABLE_NAME, new String[]{COLUMN_NAME},
+                    COLUMN_ID + " = ?", new String[]{String.valueOf(id)}, null, null, null);
+            try {
+                if (cursor.moveToNext()) {
+                    name = cursor.getString(0);
+                    cache(id, name);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return name;
+    }
+
+    private void cache(int id, String name) {
+        // Keeps the first canonical string when threads race
+        String existing = names.putIfAbsent(id, name);
+        ids.putIfAbsent(existing != null ? existing : name, id);
+    }
+}
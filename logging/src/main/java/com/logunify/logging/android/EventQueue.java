@@ -0,0 +1,92 @@
+package com.logunify.logging.android;
+
+import com.logunify.logging.event.Event;
+import com.logunify.logging.event.EventRecord;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * FIFO queue of events waiting to be uploaded.
+ * <p>
+ * Built-in backends are picked with {@link EventStore}, custom ones can be passed to
+ * {@link Logger#init(android.content.Context, EventQueue)}. Implementations are called from the
+ * logger's writer thread and from workers at the same time, so they must be thread-safe. Ids must
+ * grow with insertion order, and once the queue holds more than its max size the oldest elements
+ * are dropped.
+ */
+public interface EventQueue {
+    /**
+     * How long claimed elements stay invisible to other consumers, a worker is stopped by
+     * WorkManager after 10 minutes so its lease must not outlive that by much.
+     */
+    long DEFAULT_LEASE_DURATION_MILLIS = 11 * 60 * 1000;
+
+    /**
+     * Get size of the queue.
+     *
+     * @return size of the queue.
+     */
+    long size();
+
+    /**
+     * Pushes element to queue.
+     */
+    void enqueue(Event event);
+
+    /**
+     * Pushes elements to queue, in iteration order.
+     */
+    void enqueueAll(Collection<? extends Event> events);
+
+    /**
+     * Retrieves up to specified amount of elements from queue, without removing them. Leases are
+     * ignored.
+     *
+     * @param max max number of elements to return.
+     * @return list of elements, ordered by id
+     */
+    List<EventRecord> peek(int max);
+
+    /**
+     * Leases up to specified amount of elements to the given owner, skipping elements leased by
+     * other owners, until they are acknowledged, released or the lease expires.
+     *
+     * @param owner unique id of the consumer
+     * @param max   max number of elements to return.
+     * @return list of leased elements, ordered by id
+     */
+    List<EventRecord> claim(String owner, int max);
+
+    /**
+     * Removes every element up to and including the given id, except those leased to a consumer.
+     *
+     * @return number of removed elements
+     */
+    long ack(long lastId);
+
+    /**
+     * Removes every element leased by the given owner up to and including the given id.
+     *
+     * @return number of removed elements
+     */
+    long ack(String owner, long lastId);
+
+    /**
+     * Gives up every lease held by the given owner.
+     */
+    void release(String owner);
+
+    /**
+     * Removes up to specified amount of elements from queue, oldest first, skipping those leased
+     * to a consumer.
+     *
+     * @param n amount of elements to remove.
+     */
+    void remove(int n);
+
+    /**
+     * Removes every element.
+     */
+    void clear();
+}
@@ -0,0 +1,33 @@
+package com.logunify.logging.android;
+
+import android.content.Context;
+
+/**
+ * Storage backends for events waiting to be uploaded.
+ */
+public enum EventStore {
+    /**
+     * SQLite database, the default.
+     */
+    SQLITE,
+    /**
+     * Append-only memory-mapped segment files, cheaper per event than SQLite for high volume apps.
+     */
+    MEMORY_MAPPED,
+    /**
+     * Heap only, events not uploaded yet are lost when the process dies.
+     */
+    IN_MEMORY;
+
+    EventQueue open(Context context, int maxSize) {
+        switch (this) {
+            case MEMORY_MAPPED:
+                return MappedSegmentEventQueue.getInstance(context, maxSize);
+            case IN_MEMORY:
+                return InMemoryEventQueue.getInstance(maxSize);
+            case SQLITE:
+            default:
+                return new SqliteEventQueue(context, maxSize);
+        }
+    }
+}
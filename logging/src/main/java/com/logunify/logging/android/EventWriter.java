@@ -0,0 +1,201 @@
+package com.logunify.logging.android;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.logunify.logging.Constants;
+import com.logunify.logging.event.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves events from an in-memory ring buffer into the persistent queue on a dedicated thread, so
+ * that logging an event never touches the disk on the caller's thread.
+ */
+class EventWriter implements Runnable {
+    static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * Maximum number of events written to the persistent queue in one go.
+     */
+    static final int MAX_WRITE_BATCH_SIZE = 256;
+
+    interface Listener {
+        /**
+         * Called on the writer thread after events have been persisted.
+         *
+         * @param count number of events persisted
+         */
+        void onEventsPersisted(int count);
+    }
+
+    private final EventRingBuffer buffer;
+    private final EventQueue queue;
+    private final Listener listener;
+    private final Thread thread;
+
+    private final AtomicBoolean parked = new AtomicBoolean();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    // Whether the last publish dropped its event, so a run of drops is only logged once
+    private final AtomicBoolean overflowing = new AtomicBoolean();
+    private final Object idleLock = new Object();
+    private volatile boolean stopped;
+    private long persisted;
+
+    EventWriter(EventQueue queue, Listener listener) {
+        this(queue, listener, DEFAULT_CAPACITY);
+    }
+
+    EventWriter(EventQueue queue, Listener listener, int capacity) {
+        Utils.requireNonNull(queue);
+        Utils.requireNonNull(listener);
+        this.buffer = new EventRingBuffer(capacity);
+        this.queue = queue;
+        this.listener = listener;
+        this.thread = new Thread(this, "logunify-event-writer");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Hands an event over to the writer thread. Constant time and lock-free, the event is dropped
+     * if the buffer is full or the writer is shut down, so the caller never waits for the disk.
+     */
+    void publish(Event event) {
+        if (stopped) {
+            dropped.incrementAndGet();
+            if (!overflowing.getAndSet(true)) {
+                Log.e(Constants.LOGGING_TAG, "Event writer is shut down, events are dropped.");
+            }
+            return;
+        }
+        if (!buffer.offer(event)) {
+            dropped.incrementAndGet();
+            if (!overflowing.getAndSet(true)) {
+                Log.w(Constants.LOGGING_TAG, String.format(Utils.DEFAULT_LOCALE,
+                        "Event buffer is full (%d), events are dropped until the writer catches up.", buffer.capacity()));
+            }
+            wakeWriter();
+            return;
+        }
+        if (overflowing.get()) {
+            overflowing.set(false);
+        }
+        // Also acts as the fence between publishing the event and reading the parked flag.
+        published.incrementAndGet();
+        wakeWriter();
+    }
+
+    /**
+     * Returns the number of events dropped before reaching the queue, because the buffer was full
+     * or the writer was shut down.
+     */
+    long getDroppedEventCount() {
+        return dropped.get();
+    }
+
+    private void wakeWriter() {
+        if (parked.get() && parked.compareAndSet(true, false)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Persists the events already published and stops the writer thread.
+     */
+    void shutdown() throws InterruptedException {
+        stopped = true;
+        LockSupport.unpark(thread);
+        if (thread.isAlive()) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Blocks until every event published before this call has been persisted.
+     *
+     * @param timeoutMillis max time to wait
+     * @return true if all events have been persisted
+     */
+    boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long target = published.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (idleLock) {
+            while (persisted < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                idleLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            writeLoop();
+        } catch (Throwable t) {
+            Log.e(Constants.LOGGING_TAG, "Event writer died, events are dropped from now on", t);
+        } finally {
+            // Producers drop events rather than filling a buffer nobody drains
+            stopped = true;
+        }
+    }
+
+    private void writeLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        List<Event> batch = new ArrayList<>(MAX_WRITE_BATCH_SIZE);
+        while (true) {
+            int drained = buffer.drainTo(batch, MAX_WRITE_BATCH_SIZE);
+            if (drained == 0) {
+                if (stopped) {
+                    return;
+                }
+                parked.set(true);
+                // Re-check after announcing that we are about to park, so a concurrent publish is never missed.
+                drained = buffer.drainTo(batch, MAX_WRITE_BATCH_SIZE);
+                if (drained == 0 && !stopped) {
+                    LockSupport.park(this);
+                }
+                parked.set(false);
+                if (drained == 0) {
+                    continue;
+                }
+            }
+
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<Event> batch) {
+        try {
+            queue.enqueueAll(batch);
+        } catch (RuntimeException e) {
+            Log.e(Constants.LOGGING_TAG, String.format(Utils.DEFAULT_LOCALE, "Unable to persist %d events, they are dropped.", batch.size()), e);
+        }
+        onPersisted(batch.size());
+    }
+
+    private void onPersisted(int count) {
+        // The listener runs first so that awaitIdle() also covers its side effects.
+        try {
+            listener.onEventsPersisted(count);
+        } catch (RuntimeException e) {
+            Log.e(Constants.LOGGING_TAG, "Error while handling persisted events", e);
+        }
+        synchronized (idleLock) {
+            persisted += count;
+            idleLock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.logunify.logging.android;
+
+/**
+ * Which events are dropped once the event store is full.
+ */
+public enum EvictionPolicy {
+    /**
+     * Drops the events logged first, the default.
+     */
+    OLDEST,
+    /**
+     * Drops the events logged last, keeping the backlog intact.
+     */
+    NEWEST,
+    /**
+     * Drops the events with the lowest {@link com.logunify.logging.event.Event#getPriority()},
+     * oldest first among equal priorities.
+     */
+    LOWEST_PRIORITY
+}
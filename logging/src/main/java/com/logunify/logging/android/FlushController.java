@@ -0,0 +1,128 @@
+package com.logunify.logging.android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.logunify.logging.Constants;
+
+import java.util.Arrays;
+
+/**
+ * Tunes the flush thresholds against the latency target of the {@link FlushPolicy}. After every
+ * flush it looks at the age of the oldest event uploaded, over the last flushes: above the target
+ * both the batch threshold and the delay are halved, well below it they grow back, up to the
+ * largest batches the target allows. The tuned thresholds are persisted for the next process.
+ * <p>
+ * Without a latency target the thresholds of the policy are used as is, ages are still measured.
+ */
+class FlushController {
+    private static final String PREFERENCES_NAME = "logunify_flush_controller";
+    private static final String PREFERENCE_KEY_MIN_BATCH_SIZE = "minBatchSize";
+    private static final String PREFERENCE_KEY_MAX_DELAY = "maxDelay";
+
+    /**
+     * Number of recent flushes the percentile is computed over.
+     */
+    static final int WINDOW_SIZE = 20;
+    /**
+     * Thresholds only grow once this many flushes were measured.
+     */
+    static final int MIN_SAMPLES = 5;
+    static final long MIN_DELAY_MILLIS = 1000;
+    static final int MAX_BATCH_SIZE = AdaptiveBatchSizer.MAX_BATCH_SIZE;
+
+    private final SharedPreferences preferences;
+    private final long targetMillis;
+    private final float percentile;
+    private int minBatchSize;
+    private long maxDelayMillis;
+
+    private final long[] ages = new long[WINDOW_SIZE];
+    private int samples;
+    private long flushCount;
+    private long lastAgeMillis = -1;
+
+    FlushController(SharedPreferences preferences, FlushPolicy policy) {
+        this.preferences = preferences;
+        this.targetMillis = policy.getLatencyTargetMillis();
+        this.percentile = policy.getLatencyPercentile();
+        if (isAdaptive()) {
+            this.minBatchSize = preferences.getInt(PREFERENCE_KEY_MIN_BATCH_SIZE, policy.getMinBatchSize());
+            this.maxDelayMillis = Math.min(targetMillis, preferences.getLong(PREFERENCE_KEY_MAX_DELAY, policy.getMaxDelayMillis()));
+        } else {
+            this.minBatchSize = policy.getMinBatchSize();
+            this.maxDelayMillis = policy.getMaxDelayMillis();
+        }
+    }
+
+    static FlushController create(Context context, FlushPolicy policy) {
+        return new FlushController(context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE), policy);
+    }
+
+    private boolean isAdaptive() {
+        return targetMillis > 0;
+    }
+
+    /**
+     * Returns the number of queued events from which an upload starts right away.
+     */
+    synchronized int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    /**
+     * Returns how long fewer events wait before being uploaded.
+     */
+    synchronized long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * Records a completed flush.
+     *
+     * @param ageMillis time between persisting the oldest event of the flush and the end of its
+     *                  upload
+     */
+    synchronized void onFlushed(long ageMillis) {
+        ages[(int) (flushCount % WINDOW_SIZE)] = ageMillis;
+        flushCount++;
+        samples = Math.min(WINDOW_SIZE, samples + 1);
+        lastAgeMillis = ageMillis;
+        if (!isAdaptive()) {
+            return;
+        }
+
+        long age = getPercentileAgeMillis();
+        if (age > targetMillis) {
+            minBatchSize = Math.max(1, minBatchSize / 2);
+            maxDelayMillis = Math.max(MIN_DELAY_MILLIS, maxDelayMillis / 2);
+            Log.d(Constants.LOGGING_TAG, String.format("Events are %d ms old when uploaded, above the %d ms target, flushing from %d events or after %d ms",
+                    age, targetMillis, minBatchSize, maxDelayMillis));
+        } else if (samples >= MIN_SAMPLES && age < targetMillis / 2) {
+            minBatchSize = Math.min(MAX_BATCH_SIZE, minBatchSize + Math.max(1, minBatchSize / 4));
+            maxDelayMillis = Math.min(targetMillis / 2, maxDelayMillis + targetMillis / 10);
+        } else {
+            return;
+        }
+        preferences.edit()
+                .putInt(PREFERENCE_KEY_MIN_BATCH_SIZE, minBatchSize)
+                .putLong(PREFERENCE_KEY_MAX_DELAY, maxDelayMillis)
+                .apply();
+    }
+
+    synchronized long getPercentileAgeMillis() {
+        if (samples == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(ages, samples);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * samples) - 1;
+        return sorted[Math.max(0, Math.min(samples - 1, index))];
+    }
+
+    synchronized FlushMetrics getMetrics() {
+        return new FlushMetrics(flushCount, lastAgeMillis, getPercentileAgeMillis(), percentile, targetMillis,
+                minBatchSize, maxDelayMillis);
+    }
+}
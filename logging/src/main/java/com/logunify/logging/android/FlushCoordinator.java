@@ -0,0 +1,168 @@
+package com.logunify.logging.android;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.work.ExistingWorkPolicy;
+
+import com.logunify.logging.Constants;
+
+/**
+ * Decides when the logger asks WorkManager for an upload. Triggers are coalesced while a flush is
+ * pending or running, so WorkManager is called at most once per flush rather than once per event;
+ * the running worker drains the events persisted in the meantime. Thresholds come from the
+ * {@link FlushController}, which is told how old events were when a flush delivered them.
+ */
+class FlushCoordinator {
+    interface Scheduler {
+        /**
+         * Enqueues the unique upload work.
+         *
+         * @param delayMillis initial delay of the work, 0 to run as soon as its constraints are met
+         * @param policy      what to do with work already enqueued
+         */
+        void schedule(long delayMillis, ExistingWorkPolicy policy);
+    }
+
+    /**
+     * A flush not heard of for this long is assumed lost, e.g. cancelled by the app, and is
+     * scheduled again on the next trigger.
+     */
+    static final long PENDING_TIMEOUT_MILLIS = 15 * 60 * 1000;
+
+    private enum State {
+        IDLE,
+        // Enqueued with an initial delay, may still be brought forward
+        DELAYED,
+        // Enqueued to run as soon as its constraints are met
+        IMMEDIATE,
+        // Enqueued again by WorkManager after the worker asked for a retry
+        RETRYING,
+        RUNNING
+    }
+
+    private final EventQueue queue;
+    private final CircuitBreaker circuitBreaker;
+    private final Scheduler scheduler;
+    private final FlushController controller;
+
+    private State state = State.IDLE;
+    private long stateSince;
+    // Whether events were persisted while the worker was running
+    private boolean triggeredWhileRunning;
+    // When the oldest event not being uploaded yet was persisted, -1 if there is none
+    private long pendingSince = -1;
+    // Same for the events of the running flush
+    private long flushingSince = -1;
+
+    FlushCoordinator(EventQueue queue, CircuitBreaker circuitBreaker, Scheduler scheduler, FlushController controller) {
+        Utils.requireNonNull(queue);
+        Utils.requireNonNull(circuitBreaker);
+        Utils.requireNonNull(scheduler);
+        Utils.requireNonNull(controller);
+        this.queue = queue;
+        this.circuitBreaker = circuitBreaker;
+        this.scheduler = scheduler;
+        this.controller = controller;
+    }
+
+    /**
+     * Called after events have been persisted.
+     */
+    synchronized void onEventsPersisted() {
+        if (pendingSince == -1) {
+            pendingSince = SystemClock.elapsedRealtime();
+        }
+        if (state != State.IDLE && SystemClock.elapsedRealtime() - stateSince > PENDING_TIMEOUT_MILLIS) {
+            Log.w(Constants.LOGGING_TAG, String.format("No news of the %s flush, scheduling it again", state));
+            state = State.IDLE;
+        }
+        switch (state) {
+            case RUNNING:
+                triggeredWhileRunning = true;
+                break;
+            case IMMEDIATE:
+            case RETRYING:
+                break;
+            case DELAYED:
+                // Brought forward once the queue is large enough, unless the receiver is failing
+                if (circuitBreaker.getRemainingOpenMillis() <= 0 && queue.size() >= controller.getMinBatchSize()) {
+                    schedule(0, ExistingWorkPolicy.REPLACE, State.IMMEDIATE);
+                }
+                break;
+            case IDLE:
+                scheduleFlush();
+                break;
+        }
+    }
+
+    private void scheduleFlush() {
+        long size = queue.size();
+        int minBatchSize = controller.getMinBatchSize();
+        long maxDelayMillis = controller.getMaxDelayMillis();
+        long openMillis = circuitBreaker.getRemainingOpenMillis();
+        if (openMillis > 0) {
+            // Workers would only fail, a single one probes the receiver once the breaker half opens.
+            schedule(openMillis, ExistingWorkPolicy.KEEP, State.DELAYED);
+            Log.v(Constants.LOGGING_TAG, String.format("Receiver is failing, upload postponed by %d ms", openMillis));
+        } else if (size >= minBatchSize) {
+            schedule(0, ExistingWorkPolicy.REPLACE, State.IMMEDIATE);
+            Log.d(Constants.LOGGING_TAG, String.format("Scheduled a one time worker to send event batch with %d events to execute immediately", size));
+        } else if (size > 0) {
+            // Otherwise we schedule the job with a delay so the message can still be sent before we reach the min batch size in the event queue,
+            // we do this because periodic job cannot have interval less than 15 mins
+            schedule(maxDelayMillis, ExistingWorkPolicy.KEEP, State.DELAYED);
+            Log.d(Constants.LOGGING_TAG, String.format("Scheduled a one time worker to send event batch with %d events to executed in %d ms", size, maxDelayMillis));
+        }
+    }
+
+    private void schedule(long delayMillis, ExistingWorkPolicy policy, State next) {
+        scheduler.schedule(delayMillis, policy);
+        state = next;
+        stateSince = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Called by the worker of a scheduled flush before uploading.
+     */
+    synchronized void onFlushStarted() {
+        state = State.RUNNING;
+        stateSince = SystemClock.elapsedRealtime();
+        triggeredWhileRunning = false;
+        // A retried flush keeps the age of its first attempt
+        if (flushingSince == -1) {
+            flushingSince = pendingSince;
+        }
+        pendingSince = -1;
+    }
+
+    /**
+     * Called by the worker of a scheduled flush once it is done.
+     *
+     * @param retrying  whether WorkManager runs the worker again later
+     * @param delivered whether the flush sent any events, only those tell how old events get
+     */
+    synchronized void onFlushFinished(boolean retrying, boolean delivered) {
+        if (!retrying && flushingSince != -1) {
+            if (delivered) {
+                controller.onFlushed(SystemClock.elapsedRealtime() - flushingSince);
+            } else if (queue.size() > 0 && (pendingSince == -1 || flushingSince < pendingSince)) {
+                // The events are still waiting, the next flush reports their age
+                pendingSince = flushingSince;
+            }
+            flushingSince = -1;
+        }
+        if (retrying) {
+            // Still enqueued, bringing it forward would defeat the backoff
+            state = State.RETRYING;
+            stateSince = SystemClock.elapsedRealtime();
+            return;
+        }
+        state = State.IDLE;
+        if (triggeredWhileRunning) {
+            // Events the worker did not get to
+            triggeredWhileRunning = false;
+            scheduleFlush();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.logunify.logging.android;
+
+/**
+ * Snapshot of how fresh uploaded events are and of the flush thresholds in use, see
+ * {@link Logger#getFlushMetrics()}. Ages are measured from persisting the oldest event of a
+ * flush to the end of its upload, over the recent flushes of this process.
+ */
+public class FlushMetrics {
+    private final long flushCount;
+    private final long lastEventAgeMillis;
+    private final long percentileEventAgeMillis;
+    private final float percentile;
+    private final long latencyTargetMillis;
+    private final int minBatchSize;
+    private final long maxDelayMillis;
+
+    FlushMetrics(long flushCount, long lastEventAgeMillis, long percentileEventAgeMillis, float percentile,
+                 long latencyTargetMillis, int minBatchSize, long maxDelayMillis) {
+        this.flushCount = flushCount;
+        this.lastEventAgeMillis = lastEventAgeMillis;
+        this.percentileEventAgeMillis = percentileEventAgeMillis;
+        this.percentile = percentile;
+        this.latencyTargetMillis = latencyTargetMillis;
+        this.minBatchSize = minBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Returns the number of flushes measured since the logger was initialized.
+     */
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * Returns the age of the oldest event of the last flush, -1 before the first one.
+     */
+    public long getLastEventAgeMillis() {
+        return lastEventAgeMillis;
+    }
+
+    /**
+     * Returns the age at {@link #getPercentile()} over the recent flushes, -1 before the first one.
+     */
+    public long getPercentileEventAgeMillis() {
+        return percentileEventAgeMillis;
+    }
+
+    public float getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * Returns the latency target of the flush policy, 0 if there is none.
+     */
+    public long getLatencyTargetMillis() {
+        return latencyTargetMillis;
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FlushMetrics{flushes=%d, lastAge=%d ms, p%d age=%d ms, target=%d ms, minBatchSize=%d, maxDelay=%d ms}",
+                flushCount, lastEventAgeMillis, Math.round(percentile * 100), percentileEventAgeMillis,
+                latencyTargetMillis, minBatchSize, maxDelayMillis);
+    }
+}
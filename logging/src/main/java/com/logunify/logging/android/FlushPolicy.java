@@ -0,0 +1,344 @@
+package com.logunify.logging.android;
+
+import androidx.work.NetworkType;
+
+import com.logunify.logging.http.CompressionCodec;
+import com.logunify.logging.http.HttpClient;
+import com.logunify.logging.http.PayloadFormat;
+
+/**
+ * When and how events are uploaded, trading latency against battery and data usage. Built with
+ * {@link Builder} and passed to {@link Logger#init(android.content.Context, EventStore, FlushPolicy)}.
+ */
+public class FlushPolicy {
+    static final int DEFAULT_MIN_BATCH_SIZE = 10;
+    static final long DEFAULT_MAX_DELAY_MILLIS = 10 * 1000;
+    /**
+     * WorkManager does not run periodic work more often than every 15 minutes.
+     */
+    static final long MIN_PERIODIC_INTERVAL_MINUTES = 15;
+    static final int DEFAULT_MAX_QUEUE_SIZE = 5000;
+    static final int DEFAULT_UPLOAD_WINDOW = 4;
+    static final float DEFAULT_LATENCY_PERCENTILE = 0.95f;
+
+    private final int minBatchSize;
+    private final long maxDelayMillis;
+    private final long periodicIntervalMinutes;
+    private final int maxQueueSize;
+    private final long maxRequestBytes;
+    private final int uploadWindow;
+    private final NetworkType requiredNetworkType;
+    private final boolean requiresBatteryNotLow;
+    private final boolean requiresCharging;
+    private final long latencyTargetMillis;
+    private final float latencyPercentile;
+    private final boolean foregroundUploadEnabled;
+    private final EvictionPolicy evictionPolicy;
+    private final float evictionFraction;
+    private final PayloadFormat payloadFormat;
+    private final CompressionCodec compressionCodec;
+    private final int compressionThresholdBytes;
+
+    private FlushPolicy(Builder builder) {
+        this.minBatchSize = builder.minBatchSize;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.periodicIntervalMinutes = builder.periodicIntervalMinutes;
+        this.maxQueueSize = builder.maxQueueSize;
+        this.maxRequestBytes = builder.maxRequestBytes;
+        this.uploadWindow = builder.uploadWindow;
+        this.requiredNetworkType = builder.requiredNetworkType;
+        this.requiresBatteryNotLow = builder.requiresBatteryNotLow;
+        this.requiresCharging = builder.requiresCharging;
+        this.latencyTargetMillis = builder.latencyTargetMillis;
+        this.latencyPercentile = builder.latencyPercentile;
+        this.foregroundUploadEnabled = builder.foregroundUploadEnabled;
+        this.evictionPolicy = builder.evictionPolicy;
+        this.evictionFraction = builder.evictionFraction;
+        this.payloadFormat = builder.payloadFormat;
+        this.compressionCodec = builder.compressionCodec;
+        this.compressionThresholdBytes = builder.compressionThresholdBytes;
+    }
+
+    /**
+     * Returns the policy used when the app does not pass one: unmetered network, battery not low.
+     */
+    public static FlushPolicy getDefault() {
+        return new Builder().build();
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public long getPeriodicIntervalMinutes() {
+        return periodicIntervalMinutes;
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public long getMaxRequestBytes() {
+        return maxRequestBytes;
+    }
+
+    public int getUploadWindow() {
+        return uploadWindow;
+    }
+
+    public NetworkType getRequiredNetworkType() {
+        return requiredNetworkType;
+    }
+
+    public boolean requiresBatteryNotLow() {
+        return requiresBatteryNotLow;
+    }
+
+    public boolean requiresCharging() {
+        return requiresCharging;
+    }
+
+    /**
+     * Returns the latency target the thresholds are tuned against, 0 if they are fixed.
+     */
+    public long getLatencyTargetMillis() {
+        return latencyTargetMillis;
+    }
+
+    public float getLatencyPercentile() {
+        return latencyPercentile;
+    }
+
+    /**
+     * Returns whether flushes run in the app's process while it is visible.
+     */
+    public boolean isForegroundUploadEnabled() {
+        return foregroundUploadEnabled;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Returns the share of the max queue size dropped at once when the queue overflows.
+     */
+    public float getEvictionFraction() {
+        return evictionFraction;
+    }
+
+    public PayloadFormat getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    /**
+     * Returns the codec requests are compressed with, null if they are sent uncompressed.
+     */
+    public CompressionCodec getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    public int getCompressionThresholdBytes() {
+        return compressionThresholdBytes;
+    }
+
+    public static class Builder {
+        private int minBatchSize = DEFAULT_MIN_BATCH_SIZE;
+        private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+        private long periodicIntervalMinutes = MIN_PERIODIC_INTERVAL_MINUTES;
+        private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+        private long maxRequestBytes = AdaptiveBatchSizer.DEFAULT_BYTE_BUDGET;
+        private int uploadWindow = DEFAULT_UPLOAD_WINDOW;
+        private NetworkType requiredNetworkType = NetworkType.UNMETERED;
+        private boolean requiresBatteryNotLow = true;
+        private boolean requiresCharging = false;
+        private long latencyTargetMillis = 0;
+        private float latencyPercentile = DEFAULT_LATENCY_PERCENTILE;
+        private boolean foregroundUploadEnabled = true;
+        private EvictionPolicy evictionPolicy = EvictionPolicy.OLDEST;
+        private float evictionFraction = SqliteEventQueue.DEFAULT_EVICTION_FRACTION;
+        private PayloadFormat payloadFormat = PayloadFormat.JSON;
+        private CompressionCodec compressionCodec = CompressionCodec.GZIP;
+        private int compressionThresholdBytes = HttpClient.DEFAULT_COMPRESSION_THRESHOLD_BYTES;
+
+        /**
+         * Sets the number of queued events from which an upload starts right away.
+         */
+        public Builder setMinBatchSize(int minBatchSize) {
+            if (minBatchSize <= 0) {
+                throw new IllegalArgumentException("minBatchSize must be greater than 0");
+            }
+            this.minBatchSize = minBatchSize;
+            return this;
+        }
+
+        /**
+         * Sets how long fewer than {@link #setMinBatchSize(int)} events wait before being uploaded.
+         */
+        public Builder setMaxDelayMillis(long maxDelayMillis) {
+            if (maxDelayMillis < 0) {
+                throw new IllegalArgumentException("maxDelayMillis must not be negative");
+            }
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * Sets the interval of the periodic upload catching events left behind, at least 15
+         * minutes.
+         */
+        public Builder setPeriodicIntervalMinutes(long periodicIntervalMinutes) {
+            if (periodicIntervalMinutes < MIN_PERIODIC_INTERVAL_MINUTES) {
+                throw new IllegalArgumentException("periodicIntervalMinutes must be at least " + MIN_PERIODIC_INTERVAL_MINUTES);
+            }
+            this.periodicIntervalMinutes = periodicIntervalMinutes;
+            return this;
+        }
+
+        /**
+         * Sets the max number of events kept while offline, older ones are dropped first.
+         */
+        public Builder setMaxQueueSize(int maxQueueSize) {
+            if (maxQueueSize <= 0) {
+                throw new IllegalArgumentException("maxQueueSize must be greater than 0");
+            }
+            this.maxQueueSize = maxQueueSize;
+            return this;
+        }
+
+        /**
+         * Sets the max uncompressed size of one bulk request.
+         */
+        public Builder setMaxRequestBytes(long maxRequestBytes) {
+            if (maxRequestBytes <= 0) {
+                throw new IllegalArgumentException("maxRequestBytes must be greater than 0");
+            }
+            this.maxRequestBytes = maxRequestBytes;
+            return this;
+        }
+
+        /**
+         * Sets how many bulk requests a worker keeps in flight.
+         */
+        public Builder setUploadWindow(int uploadWindow) {
+            if (uploadWindow <= 0) {
+                throw new IllegalArgumentException("uploadWindow must be greater than 0");
+            }
+            this.uploadWindow = uploadWindow;
+            return this;
+        }
+
+        /**
+         * Sets the network uploads wait for, {@link NetworkType#CONNECTED} to use mobile data too.
+         */
+        public Builder setRequiredNetworkType(NetworkType requiredNetworkType) {
+            Utils.requireNonNull(requiredNetworkType);
+            this.requiredNetworkType = requiredNetworkType;
+            return this;
+        }
+
+        public Builder setRequiresBatteryNotLow(boolean requiresBatteryNotLow) {
+            this.requiresBatteryNotLow = requiresBatteryNotLow;
+            return this;
+        }
+
+        public Builder setRequiresCharging(boolean requiresCharging) {
+            this.requiresCharging = requiresCharging;
+            return this;
+        }
+
+        /**
+         * Tunes the batch threshold and delay so that the given share of events is uploaded
+         * within the target, with batches as large as the target allows. The thresholds set on
+         * this builder are the starting point. Time spent waiting for the network and battery
+         * constraints counts against the target.
+         *
+         * @param targetMillis max age of events when uploaded, 0 to keep the thresholds fixed
+         * @param percentile   share of flushes meeting the target, e.g. 0.95
+         */
+        public Builder setLatencyTarget(long targetMillis, float percentile) {
+            if (targetMillis < 0) {
+                throw new IllegalArgumentException("targetMillis must not be negative");
+            }
+            if (percentile <= 0 || percentile > 1) {
+                throw new IllegalArgumentException("percentile must be in (0, 1]");
+            }
+            this.latencyTargetMillis = targetMillis;
+            this.latencyPercentile = percentile;
+            return this;
+        }
+
+        /**
+         * Sets whether flushes run on a thread of the app while one of its activities is visible
+         * and the constraints are met, rather than as WorkManager jobs. On by default.
+         */
+        public Builder setForegroundUploadEnabled(boolean foregroundUploadEnabled) {
+            this.foregroundUploadEnabled = foregroundUploadEnabled;
+            return this;
+        }
+
+        /**
+         * Sets which events are dropped once the queue is full, see
+         * {@link #setEvictionPolicy(EvictionPolicy, float)}.
+         */
+        public Builder setEvictionPolicy(EvictionPolicy evictionPolicy) {
+            return setEvictionPolicy(evictionPolicy, evictionFraction);
+        }
+
+        /**
+         * Sets which events are dropped once the queue is full. Only {@link EventStore#SQLITE}
+         * supports policies other than {@link EvictionPolicy#OLDEST} and dropping several events
+         * at once, the other stores drop the oldest events one by one.
+         *
+         * @param evictionPolicy which events to drop
+         * @param fraction       share of the max queue size dropped at once, so the next events
+         *                       do not have to evict anything, between 0 and 1
+         */
+        public Builder setEvictionPolicy(EvictionPolicy evictionPolicy, float fraction) {
+            Utils.requireNonNull(evictionPolicy);
+            if (!(fraction >= 0 && fraction < 1)) {
+                throw new IllegalArgumentException("fraction must be at least 0 and less than 1");
+            }
+            this.evictionPolicy = evictionPolicy;
+            this.evictionFraction = fraction;
+            return this;
+        }
+
+        /**
+         * Sets how request bodies are encoded, JSON by default. {@link PayloadFormat#PROTOBUF} is
+         * smaller but needs a receiver which understands it. If the receiver rejects the format,
+         * requests are sent as JSON from then on.
+         */
+        public Builder setPayloadFormat(PayloadFormat payloadFormat) {
+            Utils.requireNonNull(payloadFormat);
+            this.payloadFormat = payloadFormat;
+            return this;
+        }
+
+        /**
+         * Sets how requests are compressed, gzip from 1 KiB by default. If the receiver rejects
+         * the encoding, requests are sent uncompressed from then on. Workers running before the
+         * logger is initialized in their process only know {@link CompressionCodec#GZIP} and
+         * {@link CompressionCodec#DEFLATE}, they send uncompressed requests for other codecs.
+         *
+         * @param codec          codec to use, or null to disable compression
+         * @param thresholdBytes payloads smaller than this are sent uncompressed
+         */
+        public Builder setCompression(CompressionCodec codec, int thresholdBytes) {
+            if (thresholdBytes < 0) {
+                throw new IllegalArgumentException("thresholdBytes must not be negative");
+            }
+            this.compressionCodec = codec;
+            this.compressionThresholdBytes = thresholdBytes;
+            return this;
+        }
+
+        public FlushPolicy build() {
+            return new FlushPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.logunify.logging.android;
+
+/**
+ * Outcome of a flush requested with {@link Logger#flush(long, Callback)}.
+ */
+public class FlushResult {
+    public interface Callback {
+        /**
+         * Called on a background thread once the queue is drained or the time budget expired.
+         */
+        void onFlushCompleted(FlushResult result);
+    }
+
+    private final long sentEvents;
+    private final long sentBytes;
+    private final long pendingEvents;
+    private final boolean timedOut;
+    private final long elapsedMillis;
+
+    FlushResult(long sentEvents, long sentBytes, long pendingEvents, boolean timedOut, long elapsedMillis) {
+        this.sentEvents = sentEvents;
+        this.sentBytes = sentBytes;
+        this.pendingEvents = pendingEvents;
+        this.timedOut = timedOut;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Returns the number of events sent, including those the receiver rejected for good.
+     */
+    public long getSentEvents() {
+        return sentEvents;
+    }
+
+    /**
+     * Returns the serialized size of the events sent, before compression.
+     */
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Returns the number of events left in the queue, uploaded later by the scheduled flushes.
+     */
+    public long getPendingEvents() {
+        return pendingEvents;
+    }
+
+    /**
+     * Returns whether the queue was empty when the flush completed.
+     */
+    public boolean isDrained() {
+        return pendingEvents == 0 && !timedOut;
+    }
+
+    /**
+     * Returns whether the time budget expired first. Requests still in flight then complete in
+     * the background.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FlushResult{sent=%d events, %d bytes, pending=%d, timedOut=%b, elapsed=%d ms}",
+                sentEvents, sentBytes, pendingEvents, timedOut, elapsedMillis);
+    }
+}
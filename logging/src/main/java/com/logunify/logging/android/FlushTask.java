@@ -0,0 +1,119 @@
+package com.logunify.logging.android;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.logunify.logging.Constants;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Flush requested by the app. Waits for the events logged so far to be persisted, then drains the
+ * queue within a time budget. Once the budget expires no batch is claimed and the flush completes,
+ * requests in flight are left to finish in the background.
+ */
+class FlushTask implements Callable<FlushResult> {
+    // Threads are only kept while flushes are running.
+    private static final ExecutorService FLUSH_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "logunify-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final AtomicInteger RUNS = new AtomicInteger();
+
+    private final EventWriter writer;
+    private final EventQueue queue;
+    private final Uploader.Factory uploaderFactory;
+    private final long start;
+    private final long deadline;
+    private Future<FlushResult> future;
+
+    private FlushTask(EventWriter writer, EventQueue queue, Uploader.Factory uploaderFactory, long timeoutMillis) {
+        this.writer = writer;
+        this.queue = queue;
+        this.uploaderFactory = uploaderFactory;
+        this.start = SystemClock.elapsedRealtime();
+        this.deadline = start + timeoutMillis;
+    }
+
+    /**
+     * Starts a flush in the background.
+     *
+     * @param writer        writer the events are logged through
+     * @param queue         queue to drain
+     * @param timeoutMillis time budget, from now
+     * @param callback      called with the result unless the flush is cancelled, may be null
+     * @return completes with the result once the queue is drained or the budget expired
+     */
+    static Future<FlushResult> start(EventWriter writer, EventQueue queue, Uploader.Factory uploaderFactory,
+                                     long timeoutMillis, FlushResult.Callback callback) {
+        Utils.requireNonNull(writer);
+        Utils.requireNonNull(queue);
+        Utils.requireNonNull(uploaderFactory);
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be greater than 0");
+        }
+        FlushTask flush = new FlushTask(writer, queue, uploaderFactory, timeoutMillis);
+        FutureTask<FlushResult> future = new FutureTask<FlushResult>(flush) {
+            @Override
+            protected void done() {
+                if (callback != null && !isCancelled()) {
+                    notifyCallback(callback, this);
+                }
+            }
+        };
+        flush.future = future;
+        FLUSH_EXECUTOR.execute(future);
+        return future;
+    }
+
+    private static void notifyCallback(FlushResult.Callback callback, Future<FlushResult> future) {
+        try {
+            callback.onFlushCompleted(future.get());
+        } catch (ExecutionException e) {
+            Log.e(Constants.LOGGING_TAG, "Flush failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            Log.e(Constants.LOGGING_TAG, "Error while handling the flush result", e);
+        }
+    }
+
+    private boolean isStopped() {
+        return future.isCancelled() || SystemClock.elapsedRealtime() >= deadline;
+    }
+
+    private long getRemainingMillis() {
+        return Math.max(0, deadline - SystemClock.elapsedRealtime());
+    }
+
+    @Override
+    public FlushResult call() throws InterruptedException {
+        Uploader uploader = uploaderFactory.create("flush-" + RUNS.incrementAndGet(), this::isStopped);
+        boolean timedOut = !writer.awaitIdle(getRemainingMillis());
+        if (!timedOut) {
+            Future<Uploader.Outcome> upload = FLUSH_EXECUTOR.submit(uploader::run);
+            try {
+                Uploader.Outcome outcome = upload.get(getRemainingMillis(), TimeUnit.MILLISECONDS);
+                Log.d(Constants.LOGGING_TAG, String.format("Flush ended (%s)", outcome));
+            } catch (TimeoutException e) {
+                timedOut = true;
+            } catch (ExecutionException e) {
+                Log.e(Constants.LOGGING_TAG, "Flush failed", e.getCause());
+            }
+        }
+        FlushResult result = new FlushResult(uploader.getSentEvents(), uploader.getSentBytes(), queue.size(),
+                timedOut, SystemClock.elapsedRealtime() - start);
+        Log.d(Constants.LOGGING_TAG, String.format("Flush completed: %s", result));
+        return result;
+    }
+}
@@ -0,0 +1,270 @@
+package com.logunify.logging.android;
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Configuration;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+
+import com.logunify.logging.Constants;
+
+/**
+ * Uploads from a thread of the app's process while one of its activities is visible, sparing
+ * WorkManager a job per flush. Flushes go back to {@link LogWorker} when the app moves to the
+ * background or runs low on memory, when the constraints of the {@link FlushPolicy} are not met,
+ * and when an upload has to be retried later.
+ */
+class ForegroundUploader implements Runnable, Application.ActivityLifecycleCallbacks, ComponentCallbacks2 {
+    /**
+     * Battery level WorkManager considers low, in percent.
+     */
+    static final int LOW_BATTERY_PERCENT = 15;
+
+    private final Context context;
+    private final FlushPolicy policy;
+    private final FlushCoordinator coordinator;
+    private final Uploader.Factory uploaderFactory;
+    private final FlushCoordinator.Scheduler fallback;
+    private final Thread thread;
+
+    private final Object lock = new Object();
+    // When the next flush is due, -1 if none is pending
+    private long dueAt = -1;
+    private volatile boolean foreground;
+    private int startedActivities;
+    private int runs;
+
+    /**
+     * @param fallback schedules flushes with WorkManager
+     */
+    ForegroundUploader(Context context, FlushPolicy policy, FlushCoordinator coordinator,
+                       Uploader.Factory uploaderFactory, FlushCoordinator.Scheduler fallback) {
+        Utils.requireNonNull(context);
+        Utils.requireNonNull(policy);
+        Utils.requireNonNull(coordinator);
+        Utils.requireNonNull(uploaderFactory);
+        Utils.requireNonNull(fallback);
+        this.context = context;
+        this.policy = policy;
+        this.coordinator = coordinator;
+        this.uploaderFactory = uploaderFactory;
+        this.fallback = fallback;
+        this.thread = new Thread(this, "logunify-foreground-upload");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        // Activities started before the logger was initialized are not reported to the callbacks,
+        // the first one stopped or TRIM_MEMORY_UI_HIDDEN hands flushes back to WorkManager.
+        foreground = isProcessVisible();
+        Context applicationContext = context.getApplicationContext();
+        if (applicationContext instanceof Application) {
+            ((Application) applicationContext).registerActivityLifecycleCallbacks(this);
+        }
+        context.registerComponentCallbacks(this);
+        thread.start();
+    }
+
+    /**
+     * Schedules a flush on the uploader thread.
+     *
+     * @param delayMillis delay of the flush
+     * @param policy      {@link ExistingWorkPolicy#KEEP} to leave a pending flush as is
+     * @return false if the flush must be scheduled with WorkManager instead
+     */
+    boolean schedule(long delayMillis, ExistingWorkPolicy policy) {
+        if (!foreground || !areConstraintsMet()) {
+            return false;
+        }
+        synchronized (lock) {
+            if (dueAt == -1 || policy != ExistingWorkPolicy.KEEP) {
+                dueAt = SystemClock.elapsedRealtime() + delayMillis;
+                lock.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (lock) {
+                long now = SystemClock.elapsedRealtime();
+                while (dueAt == -1 || now < dueAt) {
+                    try {
+                        lock.wait(dueAt == -1 ? 0 : dueAt - now);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    now = SystemClock.elapsedRealtime();
+                }
+                dueAt = -1;
+            }
+            flush();
+        }
+    }
+
+    private void flush() {
+        coordinator.onFlushStarted();
+        Uploader uploader = uploaderFactory.create("foreground-" + (++runs), () -> !foreground);
+        Uploader.Outcome outcome = Uploader.Outcome.RETRY;
+        try {
+            outcome = uploader.run();
+        } catch (RuntimeException e) {
+            // Keeps the thread alive, WorkManager takes over
+            Log.e(Constants.LOGGING_TAG, "Foreground upload failed", e);
+        } finally {
+            boolean handOff = outcome == Uploader.Outcome.RETRY || (!foreground && outcome == Uploader.Outcome.SUCCESS && uploader.hasPendingEvents());
+            coordinator.onFlushFinished(handOff, uploader.getSentEvents() > 0);
+            if (handOff) {
+                long delayMillis = uploader.getRemainingBackoffMillis();
+                Log.d(Constants.LOGGING_TAG, String.format("Foreground upload ended (%s), leaving the rest to WorkManager in %d ms", outcome, delayMillis));
+                fallback.schedule(delayMillis, ExistingWorkPolicy.KEEP);
+            }
+        }
+    }
+
+    /**
+     * Moves a pending flush to WorkManager, which runs it even if the process dies.
+     */
+    private void handOff() {
+        long delayMillis;
+        synchronized (lock) {
+            if (dueAt == -1) {
+                return;
+            }
+            delayMillis = Math.max(0, dueAt - SystemClock.elapsedRealtime());
+            dueAt = -1;
+        }
+        Log.d(Constants.LOGGING_TAG, String.format("App is in the background, flush in %d ms left to WorkManager", delayMillis));
+        fallback.schedule(delayMillis, ExistingWorkPolicy.KEEP);
+    }
+
+    private static boolean isProcessVisible() {
+        ActivityManager.RunningAppProcessInfo processInfo = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(processInfo);
+        // Foreground services rank in between, they do not make the app visible
+        return processInfo.importance == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND
+                || processInfo.importance == ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE;
+    }
+
+    private boolean areConstraintsMet() {
+        return isNetworkAllowed(policy.getRequiredNetworkType()) && isBatteryAllowed();
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean isNetworkAllowed(NetworkType networkType) {
+        if (networkType == NetworkType.NOT_REQUIRED) {
+            return true;
+        }
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo;
+        try {
+            networkInfo = connectivityManager != null ? connectivityManager.getActiveNetworkInfo() : null;
+        } catch (SecurityException e) {
+            // Without ACCESS_NETWORK_STATE only WorkManager knows
+            return false;
+        }
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return false;
+        }
+        switch (networkType) {
+            case CONNECTED:
+                return true;
+            case NOT_ROAMING:
+                return !networkInfo.isRoaming();
+            case METERED:
+                return connectivityManager.isActiveNetworkMetered();
+            case UNMETERED:
+            default:
+                return !connectivityManager.isActiveNetworkMetered();
+        }
+    }
+
+    private boolean isBatteryAllowed() {
+        if (!policy.requiresBatteryNotLow() && !policy.requiresCharging()) {
+            return true;
+        }
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return false;
+        }
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL;
+        if (charging) {
+            return true;
+        }
+        if (policy.requiresCharging()) {
+            return false;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level >= 0 && scale > 0 && level * 100 / scale > LOW_BATTERY_PERCENT;
+    }
+
+    @Override
+    public void onActivityStarted(@NonNull Activity activity) {
+        startedActivities++;
+        foreground = true;
+    }
+
+    @Override
+    public void onActivityStopped(@NonNull Activity activity) {
+        startedActivities = Math.max(0, startedActivities - 1);
+        if (startedActivities == 0 && !activity.isChangingConfigurations()) {
+            foreground = false;
+            handOff();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            foreground = false;
+            handOff();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        // The process may be killed any time now
+        handOff();
+    }
+
+    @Override
+    public void onActivityCreated(@NonNull Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(@NonNull Activity activity) {
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+}
@@ -0,0 +1,189 @@
+package com.logunify.logging.android;
+
+import com.logunify.logging.event.Event;
+import com.logunify.logging.event.EventRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Event queue kept on the heap. Nothing survives the process, so it suits tests and apps which
+ * would rather lose events than pay for disk writes.
+ */
+class InMemoryEventQueue implements EventQueue {
+    private static class Entry {
+        final EventRecord record;
+        String leaseOwner;
+        long leaseExpiresAt;
+
+        Entry(EventRecord record) {
+            this.record = record;
+        }
+    }
+
+    private static InMemoryEventQueue instance;
+
+    private final int maxSize;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final ByteArrayOutputStream serializationBuffer = new ByteArrayOutputStream();
+    private long nextId = 1;
+    // Ids restart with the queue, the random prefix keeps them unique across processes.
+    private final String eventIdPrefix = UUID.randomUUID() + "-";
+
+    InMemoryEventQueue(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the queue shared by the logger and the workers of this process.
+     */
+    static synchronized InMemoryEventQueue getInstance(int maxSize) {
+        if (instance == null) {
+            instance = new InMemoryEventQueue(maxSize);
+        }
+        return instance;
+    }
+
+    @Override
+    public synchronized long size() {
+        return entries.size();
+    }
+
+    @Override
+    public void enqueue(Event event) {
+        Utils.requireNonNull(event);
+        enqueueAll(Collections.singletonList(event));
+    }
+
+    @Override
+    public synchronized void enqueueAll(Collection<? extends Event> events) {
+        Utils.requireNonNull(events);
+        try {
+            for (Event event : events) {
+                Utils.requireNonNull(event);
+                // Events are copied, so later changes to the event objects are not uploaded.
+                serializationBuffer.reset();
+                event.serializeTo(serializationBuffer);
+                entries.addLast(new Entry(new EventRecord(nextId, eventIdPrefix + nextId++, serializationBuffer.toByteArray(),
+                        event.getSchemaName(), event.getProjectName())));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to serialize event", e);
+        }
+
+        while (entries.size() > maxSize) {
+            entries.removeFirst();
+        }
+    }
+
+    @Override
+    public synchronized List<EventRecord> peek(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("max must be greater than 0");
+        }
+        List<EventRecord> results = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (results.size() >= max) {
+                break;
+            }
+            results.add(entry.record);
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized List<EventRecord> claim(String owner, int max) {
+        Utils.requireNonNull(owner);
+        if (max <= 0) {
+            throw new IllegalArgumentException("max must be greater than 0");
+        }
+        long now = System.currentTimeMillis();
+        List<EventRecord> results = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (results.size() >= max) {
+                break;
+            }
+            if (entry.leaseExpiresAt > now && !owner.equals(entry.leaseOwner)) {
+                continue;
+            }
+            entry.leaseOwner = owner;
+            entry.leaseExpiresAt = now + DEFAULT_LEASE_DURATION_MILLIS;
+            results.add(entry.record);
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized long ack(long lastId) {
+        long now = System.currentTimeMillis();
+        long removed = 0;
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.record.getId() > lastId) {
+                break;
+            }
+            if (entry.leaseExpiresAt <= now) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized long ack(String owner, long lastId) {
+        Utils.requireNonNull(owner);
+        long removed = 0;
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.record.getId() > lastId) {
+                break;
+            }
+            if (owner.equals(entry.leaseOwner)) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void release(String owner) {
+        Utils.requireNonNull(owner);
+        for (Entry entry : entries) {
+            if (owner.equals(entry.leaseOwner)) {
+                entry.leaseOwner = null;
+                entry.leaseExpiresAt = 0;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(int n) {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.iterator();
+        while (n > 0 && iterator.hasNext()) {
+            if (iterator.next().leaseExpiresAt <= now) {
+                iterator.remove();
+                n--;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -1,7 +1,14 @@
 package com.logunify.logging.android;
 
 import static com.logunify.logging.android.Logger.CONFIG_KEY_API_KEY;
+import static com.logunify.logging.android.Logger.CONFIG_KEY_COMPRESSION_ENCODING;
+import static com.logunify.logging.android.Logger.CONFIG_KEY_COMPRESSION_THRESHOLD;
+import static com.logunify.logging.android.Logger.CONFIG_KEY_EVENT_STORE;
+import static com.logunify.logging.android.Logger.CONFIG_KEY_MAX_QUEUE_SIZE;
+import static com.logunify.logging.android.Logger.CONFIG_KEY_MAX_REQUEST_BYTES;
+import static com.logunify.logging.android.Logger.CONFIG_KEY_PAYLOAD_FORMAT;
 import static com.logunify.logging.android.Logger.CONFIG_KEY_RECEIVER_URL;
+import static com.logunify.logging.android.Logger.CONFIG_KEY_UPLOAD_WINDOW;
 
 import android.content.Context;
 import android.util.Log;
@@ -11,28 +18,14 @@ import androidx.work.Worker;
 import androidx.work.WorkerParameters;
 
 import com.logunify.logging.Constants;
-import com.logunify.logging.event.EventRecord;
-import com.logunify.logging.http.ApiResponse;
+import com.logunify.logging.http.CompressionCodec;
 import com.logunify.logging.http.HttpClient;
-
-import java.io.IOException;
-import java.util.List;
+import com.logunify.logging.http.PayloadFormat;
 
 public class LogWorker extends Worker {
-    /**
-     * Maximum number of messages to send in one bulk request.
-     */
-    private static final int MAX_BULK_SIZE = 50;
-
-    /**
-     * Number of times to attempt to send batch request.
-     */
-    private static final int MAX_ATTEMPTS = 3;
-
-    private HttpClient client;
     private final Context context;
-
-    private SqliteEventQueue preflightQueue;
+    // Events sent by the last flush
+    private long sentEvents;
 
     public LogWorker(@NonNull Context context, @NonNull WorkerParameters params) {
         super(context, params);
@@ -42,84 +35,108 @@ public class LogWorker extends Worker {
     @NonNull
     @Override
     public Result doWork() {
-        this.client = new HttpClient(
-                getInputData().getString(CONFIG_KEY_RECEIVER_URL),
-                getInputData().getString(CONFIG_KEY_API_KEY)
-        );
-        this.preflightQueue = new SqliteEventQueue(context);
+        FlushCoordinator coordinator = getFlushCoordinator();
+        if (coordinator == null) {
+            return flush();
+        }
+        coordinator.onFlushStarted();
+        Result result = Result.failure();
+        try {
+            result = flush();
+            return result;
+        } finally {
+            coordinator.onFlushFinished(Result.retry().equals(result), sentEvents > 0);
+        }
+    }
 
-        long size = preflightQueue.size();
-        Log.d(Constants.LOGGING_TAG, String.format("Worker (%s) started, message queue size: %d", getId(), size));
-        if (size <= 0) {
-            return Result.success();
+    /**
+     * Returns the coordinator which scheduled this worker, or null for periodic workers and
+     * workers of a process the logger is not initialized in.
+     */
+    private FlushCoordinator getFlushCoordinator() {
+        if (!getTags().contains(Logger.FLUSH_WORKER_TAG) || !Logger.isInitialized()) {
+            return null;
         }
+        return Logger.getInstance().flushCoordinator;
+    }
 
-        // sendInBatches() only returns false if nothing was sent
-        boolean success = sendInBatches();
+    private Result flush() {
+        EventQueue preflightQueue = openQueue();
+        if (preflightQueue == null) {
+            // A custom queue is only reachable once the app has initialized the logger again.
+            Log.w(Constants.LOGGING_TAG, String.format("Worker (%s) started before the logger was initialized", getId()));
+            return Result.retry();
+        }
 
-        if (!success) {
-            Log.e(Constants.LOGGING_TAG, String.format("Worker (%s) failed to send logs", getId()));
-            return Result.failure();
-        } else {
-            Log.d(Constants.LOGGING_TAG, String.format("Worker (%s) succeeded in sending logs, message queue size: %d ", getId(), preflightQueue.size()));
-            return Result.success();
+        Uploader uploader = new Uploader(
+                getId().toString(),
+                getHttpClient(),
+                new AppMetadata(
+                        getInputData().getInt(Logger.APP_METADATA_KEY_VERSION_CODE, 0),
+                        getInputData().getString(Logger.APP_METADATA_KEY_VERSION_NAME),
+                        getInputData().getString(Logger.APP_METADATA_KEY_INSTALLATION_ID)
+                ),
+                preflightQueue,
+                AdaptiveBatchSizer.getInstance(context,
+                        getInputData().getLong(CONFIG_KEY_MAX_REQUEST_BYTES, AdaptiveBatchSizer.DEFAULT_BYTE_BUDGET)),
+                RetryPolicy.getInstance(context),
+                DeadLetterStore.getInstance(context),
+                CircuitBreaker.getInstance(context),
+                getInputData().getInt(CONFIG_KEY_UPLOAD_WINDOW, FlushPolicy.DEFAULT_UPLOAD_WINDOW),
+                this::isStopped
+        );
+        Uploader.Outcome outcome = uploader.run();
+        sentEvents = uploader.getSentEvents();
+        switch (outcome) {
+            case RETRY:
+                return Result.retry();
+            case FAILURE:
+                return Result.failure();
+            case SUCCESS:
+            default:
+                return Result.success();
         }
     }
 
-    private boolean sendInBatches() {
-        boolean success = false;
-        List<EventRecord> batch = preflightQueue.peek(MAX_BULK_SIZE);
-        do {
-            if (sendEvents(batch)) {
-                success = true;
-                preflightQueue.remove(batch.size());
-                batch = preflightQueue.peek(MAX_BULK_SIZE);
-            } else {
-                return success;
-            }
-        } while (batch.size() > 0);
-
-        return true;
+    private HttpClient getHttpClient() {
+        if (Logger.isInitialized()) {
+            return Logger.getInstance().getHttpClient();
+        }
+        return Uploader.getClient(
+                getInputData().getString(CONFIG_KEY_RECEIVER_URL),
+                getInputData().getString(CONFIG_KEY_API_KEY),
+                getPayloadFormat(getInputData().getString(CONFIG_KEY_PAYLOAD_FORMAT)),
+                getCompressionCodec(getInputData().getString(CONFIG_KEY_COMPRESSION_ENCODING)),
+                getInputData().getInt(CONFIG_KEY_COMPRESSION_THRESHOLD, HttpClient.DEFAULT_COMPRESSION_THRESHOLD_BYTES)
+        );
     }
 
-    private boolean sendEvents(List<EventRecord> eventRecords) {
-        return attemptSendEvents(eventRecords, MAX_ATTEMPTS);
+    private static PayloadFormat getPayloadFormat(String name) {
+        return name != null ? PayloadFormat.valueOf(name) : PayloadFormat.JSON;
     }
 
-    private boolean attemptSendEvents(List<EventRecord> events, int leftAttempts) {
-        if (leftAttempts == 0) {
-            return false;
+    /**
+     * Returns the built-in codec with the given encoding, null for custom codecs which only the
+     * logger of the worker's process knows.
+     */
+    private static CompressionCodec getCompressionCodec(String encoding) {
+        if (CompressionCodec.GZIP.getEncoding().equals(encoding)) {
+            return CompressionCodec.GZIP;
+        } else if (CompressionCodec.DEFLATE.getEncoding().equals(encoding)) {
+            return CompressionCodec.DEFLATE;
         }
-        leftAttempts -= 1;
-        AppMetadata appMetadata = new AppMetadata(
-                getInputData().getInt(Logger.APP_METADATA_KEY_VERSION_CODE, 0),
-                getInputData().getString(Logger.APP_METADATA_KEY_VERSION_NAME),
-                getInputData().getString(Logger.APP_METADATA_KEY_INSTALLATION_ID)
-        );
-        try {
-            Log.d(Constants.LOGGING_TAG, String.format("Attempting to send bulk request with %d events.", events.size()));
-            ApiResponse response = client.sendEvents(events, appMetadata);
-
-            if (!response.isSuccessful()) {
-                Log.e(Constants.LOGGING_TAG, String.format("Worked (%s), received bad status code (%d) returned from api. Response: %s",
-                        getId(), response.getCode(), response.getBody()));
-                return false;
-            } else if (response.hasError()) {
-                // we just log the error, as we most likely cannot resolve the issue by retrying these documents
-                Log.e(Constants.LOGGING_TAG, String.format("Worker (%s), unable to send all documents. Response: %s",
-                        getId(),
-                        response.getBody()));
-                return false;
-            }
+        return null;
+    }
 
-            Log.d(Constants.LOGGING_TAG, String.format("Worker (%s), successfully sent all %d events. Response: %s",
-                    getId(),
-                    events.size(),
-                    response.getBody()));
-            return true;
-        } catch (IOException e) {
-            Log.e(Constants.LOGGING_TAG, String.format("Worked (%s), error while sending logs: %s", getId(), e.getMessage()), e);
-            return attemptSendEvents(events, leftAttempts);
+    private EventQueue openQueue() {
+        if (Logger.isInitialized()) {
+            return Logger.getInstance().preflightQueue;
+        }
+        String eventStore = getInputData().getString(CONFIG_KEY_EVENT_STORE);
+        if (eventStore == null) {
+            return null;
         }
+        return EventStore.valueOf(eventStore).open(context,
+                getInputData().getInt(CONFIG_KEY_MAX_QUEUE_SIZE, FlushPolicy.DEFAULT_MAX_QUEUE_SIZE));
     }
 }
@@ -4,14 +4,12 @@ import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.work.Constraints;
 import androidx.work.Data;
 import androidx.work.ExistingPeriodicWorkPolicy;
 import androidx.work.ExistingWorkPolicy;
-import androidx.work.NetworkType;
 import androidx.work.OneTimeWorkRequest;
 import androidx.work.PeriodicWorkRequest;
 import androidx.work.WorkManager;
@@ -19,12 +17,25 @@ import androidx.work.WorkRequest;
 
 import com.logunify.logging.Constants;
 import com.logunify.logging.event.Event;
+import com.logunify.logging.http.CompressionCodec;
+import com.logunify.logging.http.HttpClient;
 
+import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.OkHttpClient;
+
 public class Logger {
     static final String CONFIG_KEY_RECEIVER_URL = "LogunifyReceiverUrl";
     static final String CONFIG_KEY_API_KEY = "LogunifyAPIKey";
+    static final String CONFIG_KEY_EVENT_STORE = "LogunifyEventStore";
+    static final String CONFIG_KEY_UPLOAD_WINDOW = "LogunifyUploadWindow";
+    static final String CONFIG_KEY_MAX_QUEUE_SIZE = "LogunifyMaxQueueSize";
+    static final String CONFIG_KEY_MAX_REQUEST_BYTES = "LogunifyMaxRequestBytes";
+    static final String CONFIG_KEY_PAYLOAD_FORMAT = "LogunifyPayloadFormat";
+    static final String CONFIG_KEY_COMPRESSION_ENCODING = "LogunifyCompressionEncoding";
+    static final String CONFIG_KEY_COMPRESSION_THRESHOLD = "LogunifyCompressionThreshold";
 
     static final String APP_METADATA_KEY_VERSION_NAME = "versionName";
     static final String APP_METADATA_KEY_VERSION_CODE = "versionCode";
@@ -36,28 +47,32 @@ public class Logger {
 
     static final String RECEIVER_URL = "https://localhost:3000/api/events/_bulk";
 
-    //Maximum number of messages to cache when offline.
-    final static int MAX_OFFLINE_MESSAGES = 5000;
-    // Minimum number of messages before sending request.
-    final static int MIN_BATCH_SIZE = 10;
-    // Minimum time between sending requests.
-    final static int MIN_TIME_DELAY = 10 * 1000;
-    // Max time between sending requests. Android has the had limitation of 15 mins mix.
-    static final int PERIODIC_TIME_INTERVAL = 15;
+    static final long DEFAULT_FLUSH_TIMEOUT_MILLIS = 10 * 1000;
 
-    WorkRequest lastScheduledOneTimeWorkRequest;
+    volatile WorkRequest lastScheduledOneTimeWorkRequest;
     WorkRequest lastScheduledPeriodicWorkRequest;
     WorkManager workerManager;
+    Context context;
 
     String versionName;
     Integer versionCode;
     String installationID;
 
-    SqliteEventQueue preflightQueue;
-    long lastScheduled = -1;
+    // Null when the app passed its own queue
+    EventStore eventStore;
+    EventQueue preflightQueue;
+    EventWriter eventWriter;
+    DeadLetterStore deadLetters;
+    CircuitBreaker circuitBreaker;
+    FlushCoordinator flushCoordinator;
+    FlushController flushController;
+    // Null when foreground uploads are disabled
+    ForegroundUploader foregroundUploader;
+    FlushPolicy flushPolicy;
 
     String apiKey;
     String receiverUrl;
+    volatile int uploadWindow;
 
     private static Logger instance;
 
@@ -66,22 +81,103 @@ public class Logger {
     }
 
     public static void init(Context context) {
-        if (!isInitialized()) {
-            Utils.requireNonNull(context);
+        init(context, EventStore.SQLITE);
+    }
+
+    /**
+     * Initializes the logger.
+     *
+     * @param context    android context
+     * @param eventStore where events are kept until they are uploaded
+     */
+    public static void init(Context context, EventStore eventStore) {
+        init(context, eventStore, FlushPolicy.getDefault());
+    }
+
+    /**
+     * Initializes the logger.
+     *
+     * @param context     android context
+     * @param eventStore  where events are kept until they are uploaded
+     * @param flushPolicy when and how events are uploaded
+     */
+    public static void init(Context context, EventStore eventStore, FlushPolicy flushPolicy) {
+        Utils.requireNonNull(context);
+        Utils.requireNonNull(eventStore);
+        Utils.requireNonNull(flushPolicy);
+        init(context, eventStore, null, flushPolicy);
+    }
 
+    /**
+     * Initializes the logger with a custom storage backend. Workers upload from the queue of the
+     * logger initialized in their process, so the app must call this before WorkManager runs them,
+     * typically from {@code Application.onCreate()}.
+     *
+     * @param context    android context
+     * @param eventQueue where events are kept until they are uploaded
+     */
+    public static void init(Context context, EventQueue eventQueue) {
+        init(context, eventQueue, FlushPolicy.getDefault());
+    }
+
+    /**
+     * Initializes the logger with a custom storage backend, see {@link #init(Context, EventQueue)}.
+     * The max queue size of the policy does not apply, the queue enforces its own.
+     *
+     * @param context     android context
+     * @param eventQueue  where events are kept until they are uploaded
+     * @param flushPolicy when and how events are uploaded
+     */
+    public static void init(Context context, EventQueue eventQueue, FlushPolicy flushPolicy) {
+        Utils.requireNonNull(context);
+        Utils.requireNonNull(eventQueue);
+        Utils.requireNonNull(flushPolicy);
+        init(context, null, eventQueue, flushPolicy);
+    }
+
+    private static synchronized void init(Context context, EventStore eventStore, EventQueue eventQueue, FlushPolicy flushPolicy) {
+        if (!isInitialized()) {
             Logger logger = new Logger();
+            logger.context = context.getApplicationContext();
             logger.installationID = Installation.id(context);
-            logger.preflightQueue = new SqliteEventQueue(context, MAX_OFFLINE_MESSAGES);
-            logger.lastScheduled = SystemClock.elapsedRealtime();
+            logger.flushPolicy = flushPolicy;
+            logger.uploadWindow = flushPolicy.getUploadWindow();
+            logger.eventStore = eventStore;
+            logger.preflightQueue = eventQueue != null ? eventQueue : eventStore.open(context, flushPolicy.getMaxQueueSize());
+            logger.applyEvictionPolicy();
+            logger.eventWriter = new EventWriter(logger.preflightQueue, logger::onEventsPersisted);
+            logger.deadLetters = DeadLetterStore.getInstance(context);
+            logger.circuitBreaker = CircuitBreaker.getInstance(context);
             logger.workerManager = WorkManager.getInstance(context);
+            logger.flushController = FlushController.create(context, flushPolicy);
+            logger.flushCoordinator = new FlushCoordinator(logger.preflightQueue, logger.circuitBreaker,
+                    logger::scheduleFlush, logger.flushController);
+            if (flushPolicy.isForegroundUploadEnabled()) {
+                logger.foregroundUploader = new ForegroundUploader(logger.context, flushPolicy,
+                        logger.flushCoordinator, logger::createUploader, logger::scheduleConstrainedWorker);
+            }
 
             logger.config(context);
             logger.schedulePeriodicWorker();
+            if (logger.foregroundUploader != null) {
+                logger.foregroundUploader.start();
+            }
+            logger.eventWriter.start();
 
             instance = logger;
         }
     }
 
+    /**
+     * Makes uploads go through the app's own client, sharing its connection pool and cache. Call
+     * it before {@link #init(Context)}, typically from {@code Application.onCreate()}.
+     *
+     * @param client client to send events with
+     */
+    public static void setHttpClient(OkHttpClient client) {
+        HttpClient.setSharedClient(client);
+    }
+
     public static Logger getInstance() {
         if (Logger.isInitialized()) {
             return instance;
@@ -89,6 +185,15 @@ public class Logger {
         throw new NullPointerException("logunify logger  is not initialized");
     }
 
+    private void applyEvictionPolicy() {
+        if (preflightQueue instanceof SqliteEventQueue) {
+            ((SqliteEventQueue) preflightQueue).setEvictionPolicy(flushPolicy.getEvictionPolicy(), flushPolicy.getEvictionFraction());
+        } else if (flushPolicy.getEvictionPolicy() != EvictionPolicy.OLDEST) {
+            Log.w(Constants.LOGGING_TAG, String.format("%s is not supported by %s, the oldest events are dropped",
+                    flushPolicy.getEvictionPolicy(), eventStore != null ? eventStore : preflightQueue.getClass().getName()));
+        }
+    }
+
     private void config(Context context) {
         Bundle data = null;
         try {
@@ -123,41 +228,137 @@ public class Logger {
                         + "  Receiver URL:                           %s\n"
                         + "  App Version Name                        %s\n"
                         + "  App Version Code                        %d\n"
-                        + "  Installation Id                         %s\n",
-                apiKey, receiverUrl, versionName, versionCode, installationID));
+                        + "  Installation Id                         %s\n"
+                        + "  Event Store                             %s\n",
+                apiKey, receiverUrl, versionName, versionCode, installationID,
+                eventStore != null ? eventStore : preflightQueue.getClass().getName()));
+    }
+
+    /**
+     * Sets how many batches a worker uploads concurrently, applies to workers scheduled afterwards.
+     *
+     * @param uploadWindow max number of requests in flight
+     */
+    public void setUploadWindow(int uploadWindow) {
+        if (uploadWindow <= 0) {
+            throw new IllegalArgumentException("uploadWindow must be greater than 0");
+        }
+        this.uploadWindow = uploadWindow;
+    }
+
+    /**
+     * Returns the circuit breaker guarding uploads, to read its state or listen to its changes.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Returns how fresh uploaded events are and the flush thresholds currently in use.
+     */
+    public FlushMetrics getFlushMetrics() {
+        return flushController.getMetrics();
+    }
+
+    /**
+     * Returns how many bytes uploads sent before and after compression.
+     */
+    public UploadMetrics getUploadMetrics() {
+        HttpClient client = getHttpClient();
+        CompressionCodec codec = client.getCompressionCodec();
+        return new UploadMetrics(client.getRawBytesSent(), client.getWireBytesSent(), client.getPayloadFormat(),
+                codec != null ? codec.getEncoding() : null);
+    }
+
+    /**
+     * Returns the number of events waiting to be uploaded and of those dropped because the queue
+     * was full.
+     */
+    public QueueMetrics getQueueMetrics() {
+        if (preflightQueue instanceof SqliteEventQueue) {
+            SqliteEventQueue queue = (SqliteEventQueue) preflightQueue;
+            return new QueueMetrics(queue.size(), flushPolicy.getEvictionPolicy(),
+                    queue.getDroppedEventCount(), queue.getEvictionCount(), eventWriter.getDroppedEventCount());
+        }
+        // Custom queues enforce their own policy
+        return new QueueMetrics(preflightQueue.size(), eventStore != null ? EvictionPolicy.OLDEST : null, -1, -1,
+                eventWriter.getDroppedEventCount());
+    }
+
+    /**
+     * Returns up to the given number of events the receiver rejected permanently, oldest first.
+     * Only the most recent ones are kept.
+     *
+     * @param max max number of events to return
+     */
+    public List<DeadLetter> getDeadLetters(int max) {
+        return deadLetters.peek(max);
+    }
+
+    /**
+     * Deletes every event the receiver rejected permanently.
+     */
+    public void clearDeadLetters() {
+        deadLetters.clear();
     }
 
     public void logEvent(Event event) {
-        if (preflightQueue == null) {
+        if (eventWriter == null) {
             Log.e(Constants.LOGGING_TAG, "Message queue has not been initialized, message dropped.");
             return;
         }
 
         Utils.requireNonNull(event);
 
-        preflightQueue.enqueue(event);
-        if (preflightQueue.size() == MAX_OFFLINE_MESSAGES) {
+        // Persisting and scheduling happen on the writer thread, see onEventsPersisted().
+        eventWriter.publish(event);
+        Log.v(Constants.LOGGING_TAG, String.format("Logged event: %s", event));
+    }
+
+    /**
+     * Uploads the events logged so far, waiting at most 10 seconds. See
+     * {@link #flush(long, FlushResult.Callback)}.
+     */
+    public Future<FlushResult> flush() {
+        return flush(DEFAULT_FLUSH_TIMEOUT_MILLIS, null);
+    }
+
+    /**
+     * Uploads the events logged so far, see {@link #flush(long, FlushResult.Callback)}.
+     *
+     * @param timeoutMillis time budget of the flush
+     */
+    public Future<FlushResult> flush(long timeoutMillis) {
+        return flush(timeoutMillis, null);
+    }
+
+    /**
+     * Uploads the events logged so far right away, e.g. from {@code onStop()} or before the user
+     * logs out. The batch threshold, delay and network and battery constraints of the flush policy
+     * are ignored, but not the backoff after failed uploads. Events left when the time budget
+     * expires are uploaded by the scheduled flushes.
+     *
+     * @param timeoutMillis time budget of the flush
+     * @param callback      called with the result, may be null
+     * @return completes once the queue is drained or the budget expired, with the number of events
+     * and bytes sent
+     */
+    public Future<FlushResult> flush(long timeoutMillis, FlushResult.Callback callback) {
+        return FlushTask.start(eventWriter, preflightQueue, this::createUploader, timeoutMillis, callback);
+    }
+
+    private void onEventsPersisted(int count) {
+        long size = preflightQueue.size();
+        if (size == flushPolicy.getMaxQueueSize()) {
             Log.d(
                     Constants.LOGGING_TAG,
-                    "Message queue overflowing (" + preflightQueue.size() + " > " + MAX_OFFLINE_MESSAGES + "), some logs might be lost."
+                    "Message queue overflowing (" + size + " > " + flushPolicy.getMaxQueueSize() + "), some logs might be lost."
             );
         }
 
-        Log.v(Constants.LOGGING_TAG, String.format("Logged event: %s", event));
-        Log.v(Constants.LOGGING_TAG, String.format("Logged, with %d events in the queue", preflightQueue.size()));
-
-        if (preflightQueue.size() >= MIN_BATCH_SIZE) {
-            // Schedule immediately exceeding the min batch size
-            scheduleConstrainedWorker(false);
-            lastScheduled = SystemClock.elapsedRealtime();
-            Log.d(Constants.LOGGING_TAG, String.format("Scheduled a one time worker to send event batch with %d events to execute immediately", preflightQueue.size()));
-        } else if (lastScheduled == -1 || SystemClock.elapsedRealtime() - lastScheduled > MIN_TIME_DELAY) {
-            // Otherwise we schedule the job with a delay so the message can still be sent before we reach the min batch size in the event queue,
-            // we do this because periodic job cannot have interval less than 15 mins
-            scheduleConstrainedWorker(true);
-            lastScheduled = SystemClock.elapsedRealtime();
-            Log.d(Constants.LOGGING_TAG, String.format("Scheduled a one time worker to send event batch with %d events to executed in %d seconds", preflightQueue.size(), MIN_TIME_DELAY));
-        }
+        Log.v(Constants.LOGGING_TAG, String.format("Persisted %d events, with %d events in the queue", count, size));
+
+        flushCoordinator.onEventsPersisted();
     }
 
     public String getVersionName() {
@@ -172,15 +373,45 @@ public class Logger {
         return installationID;
     }
 
-    private void scheduleConstrainedWorker(boolean withDelay) {
+    private void scheduleFlush(long delayMillis, ExistingWorkPolicy existingWorkPolicy) {
+        if (foregroundUploader != null && foregroundUploader.schedule(delayMillis, existingWorkPolicy)) {
+            return;
+        }
+        scheduleConstrainedWorker(delayMillis, existingWorkPolicy);
+    }
+
+    /**
+     * Returns the client uploads of this process go through, workers included.
+     */
+    HttpClient getHttpClient() {
+        return Uploader.getClient(receiverUrl, apiKey, flushPolicy.getPayloadFormat(),
+                flushPolicy.getCompressionCodec(), flushPolicy.getCompressionThresholdBytes());
+    }
+
+    private Uploader createUploader(String name, Uploader.StopSignal stopSignal) {
+        return new Uploader(
+                name,
+                getHttpClient(),
+                new AppMetadata(versionCode, versionName, installationID),
+                preflightQueue,
+                AdaptiveBatchSizer.getInstance(context, flushPolicy.getMaxRequestBytes()),
+                RetryPolicy.getInstance(context),
+                deadLetters,
+                circuitBreaker,
+                uploadWindow,
+                stopSignal
+        );
+    }
+
+    // Called from the writer, foreground upload and main threads, which must not interleave the
+    // enqueue and the update of lastScheduledOneTimeWorkRequest.
+    private synchronized void scheduleConstrainedWorker(long delayMillis, ExistingWorkPolicy existingWorkPolicy) {
         OneTimeWorkRequest.Builder builder = new OneTimeWorkRequest.Builder(LogWorker.class)
                 .addTag(FLUSH_WORKER_TAG)
                 .setInputData(getWorkerData())
                 .setConstraints(getWorkerConstraints());
-        ExistingWorkPolicy existingWorkPolicy = ExistingWorkPolicy.REPLACE;
-        if (withDelay) {
-            builder.setInitialDelay(MIN_TIME_DELAY, TimeUnit.MILLISECONDS);
-            existingWorkPolicy = ExistingWorkPolicy.KEEP;
+        if (delayMillis > 0) {
+            builder.setInitialDelay(delayMillis, TimeUnit.MILLISECONDS);
         }
 
         OneTimeWorkRequest workRequest = builder.build();
@@ -194,7 +425,7 @@ public class Logger {
 
     private void schedulePeriodicWorker() {
         PeriodicWorkRequest workRequest = new PeriodicWorkRequest.Builder(
-                LogWorker.class, PERIODIC_TIME_INTERVAL, TimeUnit.MINUTES)
+                LogWorker.class, flushPolicy.getPeriodicIntervalMinutes(), TimeUnit.MINUTES)
                 .addTag(INTERVAL_WORKER_TAG)
                 .setInputData(getWorkerData())
                 .setConstraints(getWorkerConstraints())
@@ -210,6 +441,14 @@ public class Logger {
         return new Data.Builder()
                 .putString(CONFIG_KEY_RECEIVER_URL, receiverUrl)
                 .putString(CONFIG_KEY_API_KEY, apiKey)
+                // Not set for custom queues, which only the logger of the worker's process knows
+                .putString(CONFIG_KEY_EVENT_STORE, eventStore != null ? eventStore.name() : null)
+                .putInt(CONFIG_KEY_UPLOAD_WINDOW, uploadWindow)
+                .putInt(CONFIG_KEY_MAX_QUEUE_SIZE, flushPolicy.getMaxQueueSize())
+                .putLong(CONFIG_KEY_MAX_REQUEST_BYTES, flushPolicy.getMaxRequestBytes())
+                .putString(CONFIG_KEY_PAYLOAD_FORMAT, flushPolicy.getPayloadFormat().name())
+                .putString(CONFIG_KEY_COMPRESSION_ENCODING, flushPolicy.getCompressionCodec() != null ? flushPolicy.getCompressionCodec().getEncoding() : null)
+                .putInt(CONFIG_KEY_COMPRESSION_THRESHOLD, flushPolicy.getCompressionThresholdBytes())
                 .putString(APP_METADATA_KEY_VERSION_NAME, versionName)
                 .putInt(APP_METADATA_KEY_VERSION_CODE, versionCode)
                 .putString(APP_METADATA_KEY_INSTALLATION_ID, installationID)
@@ -217,10 +456,10 @@ public class Logger {
     }
 
     private Constraints getWorkerConstraints() {
-        // @TODO: Make it customizable
         return new Constraints.Builder()
-                .setRequiredNetworkType(NetworkType.UNMETERED)
-                .setRequiresBatteryNotLow(true)
+                .setRequiredNetworkType(flushPolicy.getRequiredNetworkType())
+                .setRequiresBatteryNotLow(flushPolicy.requiresBatteryNotLow())
+                .setRequiresCharging(flushPolicy.requiresCharging())
                 .build();
     }
 }
@@ -0,0 +1,627 @@
+package com.logunify.logging.android;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.logunify.logging.Constants;
+import com.logunify.logging.event.Event;
+import com.logunify.logging.event.EventRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent FIFO queue made of fixed-size memory-mapped segment files.
+ * <p>
+ * Records are appended to the tail segment as
+ * {@code [length][crc32][id][timestamp][project name][schema name][payload]}. On start the queue
+ * is scanned from the head, and the first record whose checksum does not match marks the tail, so
+ * a record torn by a crash is discarded together with anything after it. The head position is
+ * kept in a header file written to two alternating slots, each with its own checksum.
+ * <p>
+ * Leases and acknowledgements behind the head are only tracked in memory; after a process death
+ * every record between head and tail is delivered again.
+ */
+class MappedSegmentEventQueue implements EventQueue {
+    static final String DIRECTORY_NAME = "logunify_events";
+    static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    private static final int DEFAULT_MAX_SIZE = 5000;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    static final String HEADER_FILE_NAME = "queue.header";
+
+    private static final int HEADER_MAGIC = 0x4c555131;
+    // magic, generation, head segment, head offset, next id, crc
+    static final int HEADER_SLOT_SIZE = 4 + 8 + 4 + 4 + 8 + 4;
+    // length, crc
+    static final int RECORD_HEADER_SIZE = 4 + 4;
+    // id, timestamp, project name length, schema name length
+    private static final int RECORD_FIXED_BODY_SIZE = 8 + 8 + 2 + 2;
+
+    private static final int VALID_END = 0;
+    private static final int CORRUPT = -1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static MappedSegmentEventQueue instance;
+
+    private static class RecordRef {
+        final long id;
+        final int segment;
+        final int offset;
+        final int length;
+        String leaseOwner;
+        long leaseExpiresAt;
+        boolean acked;
+
+        RecordRef(long id, int segment, int offset, int length) {
+            this.id = id;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final File directory;
+    private final int maxSize;
+    private final int segmentSize;
+    // Ids are kept in the header and never reused, which makes them unique per installation.
+    private final String eventIdPrefix;
+
+    private final Map<Integer, MappedByteBuffer> segments = new HashMap<>();
+    private final ArrayDeque<RecordRef> records = new ArrayDeque<>();
+    private final Map<String, String> canonicalNames = new HashMap<>();
+    private final ByteArrayOutputStream serializationBuffer = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+    private byte[] scratch = new byte[256];
+    private MappedByteBuffer header;
+    private long headerGeneration;
+    private int headSegmentFromHeader;
+    private int headOffsetFromHeader;
+
+    private int tailSegment;
+    private int tailOffset;
+    private long nextId = 1;
+    private long pending;
+
+    /**
+     * Returns the queue stored in the app's files directory, there must be only one instance per
+     * directory in a process.
+     *
+     * @param context android context
+     * @param maxSize max size of the queue, older records will be overwritten
+     */
+    static synchronized MappedSegmentEventQueue getInstance(Context context, int maxSize) {
+        if (instance == null) {
+            Utils.requireNonNull(context);
+            // Distinct from the ids of the SQLite queue, whose events may still be uploaded.
+            instance = new MappedSegmentEventQueue(new File(context.getFilesDir(), DIRECTORY_NAME), maxSize, DEFAULT_SEGMENT_SIZE,
+                    Installation.id(context) + "-m");
+        }
+        return instance;
+    }
+
+    static MappedSegmentEventQueue getInstance(Context context) {
+        return getInstance(context, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructor, opens the queue and recovers it from any crash.
+     *
+     * @param directory     directory holding the segment and header files
+     * @param maxSize       max size of the queue, older records will be overwritten
+     * @param segmentSize   size of each segment file, bounds the size of a single record
+     * @param eventIdPrefix prefix of the event ids, followed by the record ids
+     */
+    MappedSegmentEventQueue(File directory, int maxSize, int segmentSize, String eventIdPrefix) {
+        Utils.requireNonNull(directory);
+        Utils.requireNonNull(eventIdPrefix);
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        if (segmentSize <= RECORD_HEADER_SIZE + RECORD_FIXED_BODY_SIZE) {
+            throw new IllegalArgumentException("segmentSize is too small");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.segmentSize = segmentSize;
+        this.eventIdPrefix = eventIdPrefix;
+        try {
+            open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open event queue in " + directory, e);
+        }
+    }
+
+    private void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        header = map(new File(directory, HEADER_FILE_NAME), HEADER_SLOT_SIZE * 2);
+
+        int segment;
+        int offset;
+        if (!readHeader()) {
+            int[] existing = existingSegments();
+            segment = existing.length > 0 ? existing[0] : 0;
+            offset = 0;
+        } else {
+            segment = headSegmentFromHeader;
+            offset = headOffsetFromHeader;
+        }
+
+        // Walk from the head until the first record that is missing or torn.
+        boolean torn = false;
+        while (true) {
+            MappedByteBuffer buffer = segment(segment, false);
+            if (buffer == null) {
+                break;
+            }
+            int length = validRecordLength(buffer, offset);
+            if (length == VALID_END && segmentFile(segment + 1).exists()) {
+                segment++;
+                offset = 0;
+                continue;
+            }
+            if (length <= 0) {
+                if (length == CORRUPT) {
+                    torn = true;
+                    Log.w(Constants.LOGGING_TAG, String.format(Utils.DEFAULT_LOCALE,
+                            "Discarding torn event record in segment %d at offset %d", segment, offset));
+                }
+                break;
+            }
+            long id = buffer.getLong(offset + RECORD_HEADER_SIZE);
+            records.addLast(new RecordRef(id, segment, offset, length));
+            nextId = Math.max(nextId, id + 1);
+            offset += length;
+        }
+        tailSegment = segment;
+        tailOffset = offset;
+        pending = records.size();
+
+        if (torn) {
+            // Anything after the tail is left over from a crash, wipe it so it can never be mistaken for a record.
+            MappedByteBuffer tail = segment(tailSegment, true);
+            for (int i = tailOffset; i < segmentSize; ++i) {
+                tail.put(i, (byte) 0);
+            }
+        }
+        int headSegment = records.isEmpty() ? tailSegment : records.peekFirst().segment;
+        for (int existing : existingSegments()) {
+            if (existing < headSegment || existing > tailSegment) {
+                deleteSegment(existing);
+            }
+        }
+        writeHeader();
+        evictOverflow();
+    }
+
+    @Override
+    public synchronized long size() {
+        return pending;
+    }
+
+    @Override
+    public void enqueue(Event event) {
+        Utils.requireNonNull(event);
+        enqueueAll(Collections.singletonList(event));
+    }
+
+    @Override
+    public synchronized void enqueueAll(Collection<? extends Event> events) {
+        Utils.requireNonNull(events);
+        long timestamp = System.currentTimeMillis();
+        try {
+            for (Event event : events) {
+                Utils.requireNonNull(event);
+                append(event, timestamp);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write event", e);
+        } finally {
+            writeHeader();
+        }
+
+        evictOverflow();
+    }
+
+    private void evictOverflow() {
+        long overflow = pending - maxSize;
+        Iterator<RecordRef> iterator = records.iterator();
+        while (overflow > 0 && iterator.hasNext()) {
+            RecordRef ref = iterator.next();
+            if (!ref.acked) {
+                markAcked(ref);
+                overflow--;
+            }
+        }
+        advanceHead();
+    }
+
+    private void append(Event event, long timestamp) throws IOException {
+        serializationBuffer.reset();
+        event.serializeTo(serializationBuffer);
+        byte[] projectName = encodeName(event.getProjectName());
+        byte[] schemaName = encodeName(event.getSchemaName());
+        if (projectName.length > Short.MAX_VALUE || schemaName.length > Short.MAX_VALUE) {
+            Log.e(Constants.LOGGING_TAG, "Event project or schema name is too long, it is dropped.");
+            return;
+        }
+        int bodyLength = RECORD_FIXED_BODY_SIZE + projectName.length + schemaName.length + serializationBuffer.size();
+        int length = RECORD_HEADER_SIZE + bodyLength;
+        if (length > segmentSize) {
+            Log.e(Constants.LOGGING_TAG, String.format(Utils.DEFAULT_LOCALE,
+                    "Event of %d bytes does not fit in a segment, it is dropped.", length));
+            return;
+        }
+        if (tailOffset + length > segmentSize) {
+            tailSegment++;
+            tailOffset = 0;
+        }
+
+        ByteBuffer body = ByteBuffer.wrap(ensureScratch(bodyLength), 0, bodyLength);
+        long id = nextId++;
+        body.putLong(id);
+        body.putLong(timestamp);
+        putName(body, projectName, event.getProjectName() == null);
+        putName(body, schemaName, event.getSchemaName() == null);
+        body.put(serializationBuffer.toByteArray());
+        crc.reset();
+        crc.update(scratch, 0, bodyLength);
+
+        MappedByteBuffer buffer = segment(tailSegment, true);
+        ByteBuffer target = buffer.duplicate();
+        target.position(tailOffset + RECORD_HEADER_SIZE);
+        target.put(scratch, 0, bodyLength);
+        // The length goes last, a record is only considered once it and the checksum are in place.
+        buffer.putInt(tailOffset + 4, (int) crc.getValue());
+        buffer.putInt(tailOffset, bodyLength);
+
+        records.addLast(new RecordRef(id, tailSegment, tailOffset, length));
+        tailOffset += length;
+        pending++;
+    }
+
+    @Override
+    public synchronized List<EventRecord> peek(int max) {
+        if (max <= 0) {
+            throw new IllegalArgumentException("max must be greater than 0");
+        }
+        List<EventRecord> results = new ArrayList<>();
+        for (RecordRef ref : records) {
+            if (results.size() >= max) {
+                break;
+            }
+            if (!ref.acked) {
+                results.add(read(ref));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized List<EventRecord> claim(String owner, int max) {
+        Utils.requireNonNull(owner);
+        if (max <= 0) {
+            throw new IllegalArgumentException("max must be greater than 0");
+        }
+        long now = System.currentTimeMillis();
+        List<EventRecord> results = new ArrayList<>();
+        for (RecordRef ref : records) {
+            if (results.size() >= max) {
+                break;
+            }
+            if (ref.acked || (ref.leaseExpiresAt > now && !owner.equals(ref.leaseOwner))) {
+                continue;
+            }
+            ref.leaseOwner = owner;
+            ref.leaseExpiresAt = now + DEFAULT_LEASE_DURATION_MILLIS;
+            results.add(read(ref));
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized long ack(long lastId) {
+        long now = System.currentTimeMillis();
+        long removed = 0;
+        for (RecordRef ref : records) {
+            if (ref.id > lastId) {
+                break;
+            }
+            if (!ref.acked && ref.leaseExpiresAt <= now) {
+                markAcked(ref);
+                removed++;
+            }
+        }
+        advanceHead();
+        return removed;
+    }
+
+    @Override
+    public synchronized long ack(String owner, long lastId) {
+        Utils.requireNonNull(owner);
+        long removed = 0;
+        for (RecordRef ref : records) {
+            if (ref.id > lastId) {
+                break;
+            }
+            if (!ref.acked && owner.equals(ref.leaseOwner)) {
+                markAcked(ref);
+                removed++;
+            }
+        }
+        advanceHead();
+        return removed;
+    }
+
+    @Override
+    public synchronized void release(String owner) {
+        Utils.requireNonNull(owner);
+        for (RecordRef ref : records) {
+            if (owner.equals(ref.leaseOwner)) {
+                ref.leaseOwner = null;
+                ref.leaseExpiresAt = 0;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(int n) {
+        long now = System.currentTimeMillis();
+        Iterator<RecordRef> iterator = records.iterator();
+        while (n > 0 && iterator.hasNext()) {
+            RecordRef ref = iterator.next();
+            if (!ref.acked && ref.leaseExpiresAt <= now) {
+                markAcked(ref);
+                n--;
+            }
+        }
+        advanceHead();
+    }
+
+    @Override
+    public synchronized void clear() {
+        records.clear();
+        pending = 0;
+        for (int existing : existingSegments()) {
+            deleteSegment(existing);
+        }
+        // Start over in a fresh segment, ids keep growing.
+        tailSegment++;
+        tailOffset = 0;
+        writeHeader();
+    }
+
+    /**
+     * Drops the mappings, the queue must not be used afterwards.
+     */
+    synchronized void close() {
+        segments.clear();
+        header = null;
+        synchronized (MappedSegmentEventQueue.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+    }
+
+    private void markAcked(RecordRef ref) {
+        ref.acked = true;
+        pending--;
+    }
+
+    private void advanceHead() {
+        int headSegment = records.isEmpty() ? tailSegment : records.peekFirst().segment;
+        boolean moved = false;
+        while (!records.isEmpty() && records.peekFirst().acked) {
+            records.pollFirst();
+            moved = true;
+        }
+        if (!moved) {
+            return;
+        }
+        writeHeader();
+        int newHeadSegment = records.isEmpty() ? tailSegment : records.peekFirst().segment;
+        for (int segment = headSegment; segment < newHeadSegment; ++segment) {
+            deleteSegment(segment);
+        }
+    }
+
+    private EventRecord read(RecordRef ref) {
+        ByteBuffer buffer = segments.get(ref.segment).duplicate();
+        buffer.position(ref.offset + RECORD_HEADER_SIZE);
+        long id = buffer.getLong();
+        // timestamp
+        buffer.getLong();
+        String projectName = readName(buffer);
+        String schemaName = readName(buffer);
+        byte[] payload = new byte[ref.offset + ref.length - buffer.position()];
+        buffer.get(payload);
+        return new EventRecord(id, eventIdPrefix + id, payload, schemaName, projectName);
+    }
+
+    /**
+     * Checks the record at the given offset.
+     *
+     * @return the record length including its header, {@link #VALID_END} if nothing was written
+     * there, or {@link #CORRUPT} if the record is torn
+     */
+    private int validRecordLength(MappedByteBuffer buffer, int offset) {
+        if (offset + RECORD_HEADER_SIZE + RECORD_FIXED_BODY_SIZE > segmentSize) {
+            return VALID_END;
+        }
+        int bodyLength = buffer.getInt(offset);
+        if (bodyLength == 0) {
+            return VALID_END;
+        }
+        if (bodyLength < RECORD_FIXED_BODY_SIZE || offset + RECORD_HEADER_SIZE + bodyLength > segmentSize) {
+            return CORRUPT;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset + RECORD_HEADER_SIZE);
+        body.get(ensureScratch(bodyLength), 0, bodyLength);
+        crc.reset();
+        crc.update(scratch, 0, bodyLength);
+        if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+            return CORRUPT;
+        }
+        return RECORD_HEADER_SIZE + bodyLength;
+    }
+
+    /**
+     * Loads the most recent valid header slot.
+     *
+     * @return false if neither slot is valid
+     */
+    private boolean readHeader() {
+        boolean found = false;
+        byte[] slot = new byte[HEADER_SLOT_SIZE];
+        for (int i = 0; i < 2; ++i) {
+            ByteBuffer source = header.duplicate();
+            source.position(i * HEADER_SLOT_SIZE);
+            source.get(slot);
+            ByteBuffer buffer = ByteBuffer.wrap(slot);
+            crc.reset();
+            crc.update(slot, 0, HEADER_SLOT_SIZE - 4);
+            if (buffer.getInt() != HEADER_MAGIC || (int) crc.getValue() != buffer.getInt(HEADER_SLOT_SIZE - 4)) {
+                continue;
+            }
+            long generation = buffer.getLong();
+            if (found && generation <= headerGeneration) {
+                continue;
+            }
+            found = true;
+            headerGeneration = generation;
+            headSegmentFromHeader = buffer.getInt();
+            headOffsetFromHeader = buffer.getInt();
+            nextId = buffer.getLong();
+        }
+        return found;
+    }
+
+    private void writeHeader() {
+        RecordRef head = records.peekFirst();
+        headerGeneration++;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SLOT_SIZE);
+        buffer.putInt(HEADER_MAGIC);
+        buffer.putLong(headerGeneration);
+        buffer.putInt(head != null ? head.segment : tailSegment);
+        buffer.putInt(head != null ? head.offset : tailOffset);
+        buffer.putLong(nextId);
+        crc.reset();
+        crc.update(buffer.array(), 0, HEADER_SLOT_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+
+        ByteBuffer target = header.duplicate();
+        target.position((int) (headerGeneration % 2) * HEADER_SLOT_SIZE);
+        target.put(buffer.array());
+    }
+
+    private MappedByteBuffer segment(int number, boolean create) throws IOException {
+        MappedByteBuffer buffer = segments.get(number);
+        if (buffer == null) {
+            File file = segmentFile(number);
+            if (!create && !file.exists()) {
+                return null;
+            }
+            buffer = map(file, segmentSize);
+            segments.put(number, buffer);
+        }
+        return buffer;
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    private void deleteSegment(int number) {
+        segments.remove(number);
+        File file = segmentFile(number);
+        if (file.exists() && !file.delete()) {
+            Log.w(Constants.LOGGING_TAG, "Unable to delete " + file);
+        }
+    }
+
+    private int[] existingSegments() {
+        String[] names = directory.list();
+        List<Integer> numbers = new ArrayList<>();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        Log.w(Constants.LOGGING_TAG, "Ignoring unexpected file " + name);
+                    }
+                }
+            }
+        }
+        Collections.sort(numbers);
+        int[] result = new int[numbers.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = numbers.get(i);
+        }
+        return result;
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            // The mapping stays valid after the file is closed.
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private byte[] ensureScratch(int size) {
+        if (scratch.length < size) {
+            scratch = new byte[Math.max(size, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    private static byte[] encodeName(String name) {
+        return name == null ? new byte[0] : name.getBytes(UTF_8);
+    }
+
+    private static void putName(ByteBuffer buffer, byte[] name, boolean isNull) {
+        // -1 marks a missing name
+        buffer.putShort(isNull ? (short) -1 : (short) name.length);
+        buffer.put(name);
+    }
+
+    private String readName(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        String name = new String(bytes, UTF_8);
+        String canonical = canonicalNames.get(name);
+        if (canonical == null) {
+            canonicalNames.put(name, name);
+            canonical = name;
+        }
+        return canonical;
+    }
+}
@@ -0,0 +1,166 @@
+package com.logunify.logging.android;
+
+import android.util.Log;
+
+import com.logunify.logging.Constants;
+import com.logunify.logging.event.EventRecord;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+
+/**
+ * Drains a queue with up to a window of batches in flight at once, so draining a backlog is bound
+ * by bandwidth rather than round trips.
+ * <p>
+ * Every batch is claimed under its own lease owner, so batches in flight never overlap. Batches may
+ * complete in any order, but they are acknowledged in claim order and only up to the first failed
+ * one, a batch only partly sent included. Batches completed after a failure are released, so their
+ * events are delivered again by the next drain, after the events of the failed batch.
+ */
+class PipelinedUploader {
+    /**
+     * Uploads one batch, called from the executor threads.
+     */
+    interface BatchSender {
+        /**
+         * @return number of events sent, a prefix of the batch, 0 if it failed
+         */
+        int send(List<EventRecord> batch);
+    }
+
+    private static class InFlight {
+        final String owner;
+        final List<EventRecord> batch;
+        int sent;
+        boolean done;
+
+        InFlight(String owner, List<EventRecord> batch) {
+            this.owner = owner;
+            this.batch = batch;
+        }
+    }
+
+    private final EventQueue queue;
+    private final AdaptiveBatchSizer batchSizer;
+    private final BatchSender sender;
+    private final Executor executor;
+    private final int window;
+    private boolean failed;
+
+    PipelinedUploader(EventQueue queue, AdaptiveBatchSizer batchSizer, BatchSender sender, Executor executor, int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be greater than 0");
+        }
+        this.queue = queue;
+        this.batchSizer = batchSizer;
+        this.sender = sender;
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * Uploads events until the queue is empty or a batch fails.
+     *
+     * @param ownerPrefix prefix of the lease owners, unique to the caller
+     * @return number of events sent and acknowledged
+     */
+    long drain(String ownerPrefix) {
+        return drain(ownerPrefix, () -> false);
+    }
+
+    /**
+     * Uploads events until the queue is empty, a batch fails or the stop signal is raised. Once
+     * stopped no batch is claimed, those in flight still complete.
+     *
+     * @param ownerPrefix prefix of the lease owners, unique to the caller
+     * @param stopSignal  checked before claiming each batch
+     * @return number of events sent and acknowledged
+     */
+    long drain(String ownerPrefix, Uploader.StopSignal stopSignal) {
+        CompletionService<InFlight> completions = new ExecutorCompletionService<>(executor);
+        // In claim order, completed batches wait here until every batch before them completed.
+        Deque<InFlight> inFlight = new ArrayDeque<>();
+        int running = 0;
+        int sequence = 0;
+        boolean exhausted = false;
+        boolean interrupted = false;
+        failed = false;
+        long acknowledged = 0;
+        try {
+            while (true) {
+                while (!failed && !exhausted && !interrupted && running < window && !stopSignal.isStopped()) {
+                    String owner = ownerPrefix + "#" + sequence++;
+                    List<EventRecord> claimed = queue.claim(owner, batchSizer.getBatchSize());
+                    if (claimed.isEmpty()) {
+                        exhausted = true;
+                        break;
+                    }
+                    InFlight batch = new InFlight(owner, batchSizer.fit(claimed));
+                    inFlight.addLast(batch);
+                    completions.submit(() -> {
+                        batch.sent = sender.send(batch.batch);
+                        return batch;
+                    });
+                    running++;
+                }
+                if (running == 0) {
+                    break;
+                }
+
+                InFlight completed;
+                try {
+                    completed = completions.take().get();
+                } catch (InterruptedException e) {
+                    // Uploads in flight hold their leases and may still succeed, so no batch is
+                    // claimed anymore but those in flight are awaited and acknowledged.
+                    Log.w(Constants.LOGGING_TAG, "Interrupted while waiting for an upload", e);
+                    interrupted = true;
+                    continue;
+                } catch (ExecutionException e) {
+                    Log.e(Constants.LOGGING_TAG, "Upload failed", e.getCause());
+                    completed = null;
+                }
+                running--;
+                if (completed == null) {
+                    failed = true;
+                    continue;
+                }
+                completed.done = true;
+                while (!inFlight.isEmpty() && inFlight.peekFirst().done) {
+                    InFlight head = inFlight.removeFirst();
+                    if (head.sent > 0 && !failed) {
+                        // Only remove what was sent, rows may have been evicted since the claim.
+                        queue.ack(head.owner, head.batch.get(head.sent - 1).getId());
+                        acknowledged += head.sent;
+                    }
+                    if (head.sent < head.batch.size()) {
+                        // Acknowledging later batches would skip the unsent tail of this one
+                        failed = true;
+                    }
+                    // Gives back events trimmed from the batch or not sent
+                    queue.release(head.owner);
+                }
+            }
+        } finally {
+            for (InFlight batch : inFlight) {
+                queue.release(batch.owner);
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return acknowledged;
+    }
+
+    /**
+     * Returns whether the last {@link #drain(String)} stopped at a failed batch.
+     */
+    boolean hasFailed() {
+        return failed;
+    }
+}
@@ -0,0 +1,66 @@
+package com.logunify.logging.android;
+
+/**
+ * Snapshot of the events waiting to be uploaded and of those dropped because the queue or the
+ * in-memory buffer in front of it was full, see {@link Logger#getQueueMetrics()}. Drops are
+ * counted since the logger was initialized.
+ */
+public class QueueMetrics {
+    private final long size;
+    private final EvictionPolicy evictionPolicy;
+    private final long droppedEventCount;
+    private final long evictionCount;
+    private final long bufferDroppedEventCount;
+
+    QueueMetrics(long size, EvictionPolicy evictionPolicy, long droppedEventCount, long evictionCount,
+                 long bufferDroppedEventCount) {
+        this.size = size;
+        this.evictionPolicy = evictionPolicy;
+        this.droppedEventCount = droppedEventCount;
+        this.evictionCount = evictionCount;
+        this.bufferDroppedEventCount = bufferDroppedEventCount;
+    }
+
+    /**
+     * Returns the number of events waiting to be uploaded.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns which events are dropped once the queue is full, null for a custom queue.
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * Returns how many events were dropped because the queue was full, -1 if the event store does
+     * not count them.
+     */
+    public long getDroppedEventCount() {
+        return droppedEventCount;
+    }
+
+    /**
+     * Returns how many times the queue overflowed, -1 if the event store does not count it.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns how many logged events were dropped before reaching the queue, because they were
+     * logged faster than the queue could store them.
+     */
+    public long getBufferDroppedEventCount() {
+        return bufferDroppedEventCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueueMetrics{size=%d, policy=%s, dropped=%d, evictions=%d, bufferDropped=%d}",
+                size, evictionPolicy, droppedEventCount, evictionCount, bufferDroppedEventCount);
+    }
+}
@@ -0,0 +1,127 @@
+package com.logunify.logging.android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Decides whether and when failed uploads are retried. Delays grow exponentially with the number
+ * of consecutive failures and are picked at random below that bound, so devices recovering from the
+ * same outage do not retry in lockstep. The state is persisted, a new worker run waits for the
+ * delay left by the previous one.
+ */
+class RetryPolicy {
+    private static final String PREFERENCES_NAME = "logunify_retry_policy";
+    private static final String PREFERENCE_KEY_FAILURES = "failures";
+    private static final String PREFERENCE_KEY_NEXT_ATTEMPT_AT = "nextAttemptAt";
+
+    static final long BASE_DELAY_MILLIS = 1000;
+    static final long MAX_DELAY_MILLIS = 30 * 60 * 1000;
+    // Caps the exponent, 2^20 seconds is well beyond the max delay.
+    private static final int MAX_EXPONENT = 20;
+
+    enum Failure {
+        /**
+         * The request did not reach the receiver or no response came back.
+         */
+        NETWORK,
+        /**
+         * 5xx or 408, the receiver may accept the same request later.
+         */
+        SERVER,
+        /**
+         * 429, the receiver asks for fewer requests.
+         */
+        THROTTLED,
+        /**
+         * 400 or 422 without per-event results. The receiver rejected the request as a whole, e.g.
+         * its envelope or encoding, not its events, which are kept and sent again later.
+         */
+        REQUEST,
+        /**
+         * Other 4xx, sending the same request again would fail again.
+         */
+        CLIENT;
+
+        boolean isRetryable() {
+            return this != CLIENT;
+        }
+
+        static Failure fromStatusCode(int code) {
+            if (code == 429) {
+                return THROTTLED;
+            } else if (code == 408 || code >= 500) {
+                return SERVER;
+            }
+            return CLIENT;
+        }
+    }
+
+    private static RetryPolicy instance;
+
+    private final SharedPreferences preferences;
+    private int failures;
+    private long nextAttemptAt;
+
+    RetryPolicy(SharedPreferences preferences) {
+        this.preferences = preferences;
+        this.failures = preferences.getInt(PREFERENCE_KEY_FAILURES, 0);
+        this.nextAttemptAt = preferences.getLong(PREFERENCE_KEY_NEXT_ATTEMPT_AT, 0);
+    }
+
+    /**
+     * Returns the policy shared by the workers of this process.
+     */
+    static synchronized RetryPolicy getInstance(Context context) {
+        if (instance == null) {
+            instance = new RetryPolicy(context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE));
+        }
+        return instance;
+    }
+
+    /**
+     * Returns how long to wait before the next attempt, 0 if it can start now.
+     */
+    synchronized long getRemainingDelayMillis() {
+        return Math.max(0, nextAttemptAt - System.currentTimeMillis());
+    }
+
+    synchronized void onSuccess() {
+        if (failures != 0 || nextAttemptAt != 0) {
+            failures = 0;
+            nextAttemptAt = 0;
+            save();
+        }
+    }
+
+    /**
+     * Records a failed attempt.
+     *
+     * @param failure          kind of failure
+     * @param retryAfterMillis delay asked for by the receiver, or a negative value
+     * @return how long to wait before the next attempt, or a negative value if the request must
+     * not be retried
+     */
+    synchronized long onFailure(Failure failure, long retryAfterMillis) {
+        if (!failure.isRetryable()) {
+            return -1;
+        }
+        long delay;
+        if (retryAfterMillis >= 0) {
+            delay = Math.min(retryAfterMillis, MAX_DELAY_MILLIS);
+        } else {
+            long bound = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(failures, MAX_EXPONENT));
+            delay = (long) (Math.random() * bound);
+        }
+        failures++;
+        nextAttemptAt = System.currentTimeMillis() + delay;
+        save();
+        return delay;
+    }
+
+    private void save() {
+        preferences.edit()
+                .putInt(PREFERENCE_KEY_FAILURES, failures)
+                .putLong(PREFERENCE_KEY_NEXT_ATTEMPT_AT, nextAttemptAt)
+                .apply();
+    }
+}
@@ -3,36 +3,91 @@ package com.logunify.logging.android;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
+import android.util.Base64;
+import android.util.Log;
 
+import com.logunify.logging.Constants;
 import com.logunify.logging.event.Event;
 import com.logunify.logging.event.EventRecord;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Persistent FIFO queue implementation with Sqlite.
  */
-class SqliteEventQueue {
+class SqliteEventQueue implements EventQueue {
     private final static String TABLE_NAME = "preflight_events";
     private final static int DEFAULT_MAX_SIZE = 5000;
+    /**
+     * Maximum number of rows inserted in one transaction.
+     */
+    final static int MAX_EVENTS_PER_TRANSACTION = 500;
+    /**
+     * Share of maxSize dropped at once when the queue overflows.
+     */
+    final static float DEFAULT_EVICTION_FRACTION = 0.1f;
     private final SQLiteDatabase db;
+    private final EventNameDictionary names;
     private final int maxSize;
-    private static AtomicLong sizeCache;
+    private final SQLiteStatement insertStatement;
+    private final ByteArrayOutputStream serializationBuffer = new ByteArrayOutputStream();
+    private final SQLiteStatement ackStatement;
+    private final SQLiteStatement leaseStatement;
+    private final SQLiteStatement ownerAckStatement;
+    private final SQLiteStatement releaseStatement;
+    private final SQLiteStatement evictOldestStatement;
+    private final SQLiteStatement removeStatement;
+    private final SQLiteStatement evictNewestStatement;
+    private final SQLiteStatement evictLowestPriorityStatement;
+    private volatile EvictionPolicy evictionPolicy = EvictionPolicy.OLDEST;
+    private volatile int lowWatermark;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final SQLiteStatement sizeStatement;
+    private final SQLiteStatement payloadBytesStatement;
+    // Row ids are never reused by AUTOINCREMENT, which makes them unique per installation.
+    private final String eventIdPrefix;
+    private static final String[] RECORD_COLUMNS = new String[]{
+            EventsDB.COLUMN_ID,
+            EventsDB.COLUMN_PAYLOAD,
+            EventsDB.COLUMN_PROJECT_ID,
+            EventsDB.COLUMN_SCHEMA_ID
+    };
+
 
     public static class EventsDB extends SQLiteOpenHelper {
-        public static final int DATABASE_VERSION = 1;
+        public static final int DATABASE_VERSION = 2;
         public static final String DATABASE_NAME = "schema_log_events";
         private static EventsDB dbInstance;
+        private EventNameDictionary nameDictionary;
 
+        private static final String COLUMN_ID = "id";
+        private static final String COLUMN_PAYLOAD = "payload";
+        // Base64 encoded payload, only used by schema version 1.
         private static final String COLUMN_SERIALIZED_EVENT = "serialized_event";
+        private static final String COLUMN_PROJECT_ID = "project_id";
+        private static final String COLUMN_SCHEMA_ID = "schema_id";
+        private static final String COLUMN_PRIORITY = "priority";
+        // Plain names, only used by schema version 1.
         private static final String COLUMN_PROJECT_NAME = "project_name";
         private static final String COLUMN_SCHEMA_NAME = "schema_name";
+        private static final String COLUMN_LEASE_OWNER = "lease_owner";
+        private static final String COLUMN_LEASE_EXPIRES_AT = "lease_expires_at";
+
+        // One row per events table, kept up to date by triggers in the same transaction as writes.
+        private static final String STATS_TABLE_NAME = "queue_stats";
+        private static final String STATS_COLUMN_QUEUE = "queue";
+        private static final String STATS_COLUMN_EVENT_COUNT = "event_count";
+        private static final String STATS_COLUMN_PAYLOAD_BYTES = "payload_bytes";
 
         public static synchronized EventsDB getInstance(Context context) {
             if (dbInstance == null) {
@@ -42,28 +97,155 @@ class SqliteEventQueue {
         }
 
         private EventsDB(Context context) {
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            this(context, DATABASE_NAME);
+        }
+
+        EventsDB(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        synchronized EventNameDictionary getNameDictionary() {
+            if (nameDictionary == null) {
+                nameDictionary = new EventNameDictionary(getWritableDatabase());
+            }
+            return nameDictionary;
         }
 
         public void onCreate(SQLiteDatabase db) {
+            createEventsTable(db, TABLE_NAME);
+            EventNameDictionary.createTable(db);
+            createStatsTable(db);
+            DeadLetterStore.createTable(db);
+        }
+
+        /**
+         * Creates the stats row of the events table, seeded from its current content, and the
+         * triggers maintaining it. Must run after the events table is rebuilt, dropping a table
+         * drops its triggers.
+         */
+        private static void createStatsTable(SQLiteDatabase db) {
+            db.execSQL(String.format(
+                    "CREATE TABLE %s (%s TEXT PRIMARY KEY, %s INTEGER NOT NULL, %s INTEGER NOT NULL);",
+                    STATS_TABLE_NAME, STATS_COLUMN_QUEUE, STATS_COLUMN_EVENT_COUNT, STATS_COLUMN_PAYLOAD_BYTES));
+            db.execSQL(String.format(
+                    "INSERT INTO %s (%s, %s, %s) SELECT '%s', COUNT(*), IFNULL(SUM(LENGTH(%s)), 0) FROM %s;",
+                    STATS_TABLE_NAME, STATS_COLUMN_QUEUE, STATS_COLUMN_EVENT_COUNT, STATS_COLUMN_PAYLOAD_BYTES,
+                    TABLE_NAME, COLUMN_PAYLOAD, TABLE_NAME));
+            db.execSQL(String.format(
+                    "CREATE TRIGGER %s_insert_stats AFTER INSERT ON %s BEGIN "
+                            + "UPDATE %s SET %s = %s + 1, %s = %s + IFNULL(LENGTH(NEW.%s), 0) WHERE %s = '%s'; END;",
+                    TABLE_NAME, TABLE_NAME,
+                    STATS_TABLE_NAME, STATS_COLUMN_EVENT_COUNT, STATS_COLUMN_EVENT_COUNT,
+                    STATS_COLUMN_PAYLOAD_BYTES, STATS_COLUMN_PAYLOAD_BYTES, COLUMN_PAYLOAD,
+                    STATS_COLUMN_QUEUE, TABLE_NAME));
+            db.execSQL(String.format(
+                    "CREATE TRIGGER %s_delete_stats AFTER DELETE ON %s BEGIN "
+                            + "UPDATE %s SET %s = %s - 1, %s = %s - IFNULL(LENGTH(OLD.%s), 0) WHERE %s = '%s'; END;",
+                    TABLE_NAME, TABLE_NAME,
+                    STATS_TABLE_NAME, STATS_COLUMN_EVENT_COUNT, STATS_COLUMN_EVENT_COUNT,
+                    STATS_COLUMN_PAYLOAD_BYTES, STATS_COLUMN_PAYLOAD_BYTES, COLUMN_PAYLOAD,
+                    STATS_COLUMN_QUEUE, TABLE_NAME));
+        }
+
+        private static void createEventsTable(SQLiteDatabase db, String tableName) {
             db.execSQL(
                     String.format(
-                            "CREATE TABLE %s (id INTEGER PRIMARY KEY AUTOINCREMENT, %s TEXT, %s TEXT, %s TEXT);",
-                            TABLE_NAME,
-                            COLUMN_SERIALIZED_EVENT,
-                            COLUMN_PROJECT_NAME,
-                            COLUMN_SCHEMA_NAME
+                            "CREATE TABLE %s (id INTEGER PRIMARY KEY AUTOINCREMENT, %s BLOB, %s INTEGER NOT NULL, %s INTEGER NOT NULL, %s TEXT, %s INTEGER NOT NULL DEFAULT 0, %s INTEGER NOT NULL DEFAULT 0);",
+                            tableName,
+                            COLUMN_PAYLOAD,
+                            COLUMN_PROJECT_ID,
+                            COLUMN_SCHEMA_ID,
+                            COLUMN_LEASE_OWNER,
+                            COLUMN_LEASE_EXPIRES_AT,
+                            COLUMN_PRIORITY
                     )
             );
         }
 
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME + ";");
-            onCreate(db);
+            if (oldVersion < 2) {
+                migrateFromVersion1(db);
+            }
+        }
+
+        /**
+         * Rebuilds the events table of version 1, which held Base64 TEXT payloads and plain names,
+         * with BLOB payloads and name ids, then adds the tables introduced since. SQLite cannot
+         * change a column type in place.
+         */
+        private static void migrateFromVersion1(SQLiteDatabase db) {
+            EventNameDictionary.createTable(db);
+            db.execSQL(String.format(
+                    "INSERT OR IGNORE INTO %s (%s) SELECT %s FROM %s WHERE %s IS NOT NULL UNION SELECT %s FROM %s WHERE %s IS NOT NULL;",
+                    EventNameDictionary.TABLE_NAME, EventNameDictionary.COLUMN_NAME,
+                    COLUMN_PROJECT_NAME, TABLE_NAME, COLUMN_PROJECT_NAME,
+                    COLUMN_SCHEMA_NAME, TABLE_NAME, COLUMN_SCHEMA_NAME));
+
+            String migrationTable = TABLE_NAME + "_v2";
+            createEventsTable(db, migrationTable);
+            String nameIdQuery = String.format(Utils.DEFAULT_LOCALE,
+                    "IFNULL((SELECT %s FROM %s WHERE %s = ?), %d)",
+                    EventNameDictionary.COLUMN_ID, EventNameDictionary.TABLE_NAME, EventNameDictionary.COLUMN_NAME,
+                    EventNameDictionary.NULL_ID);
+            SQLiteStatement insert = db.compileStatement(
+                    String.format(
+                            "INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, %s, %s)",
+                            migrationTable,
+                            COLUMN_ID,
+                            COLUMN_PAYLOAD,
+                            COLUMN_PROJECT_ID,
+                            COLUMN_SCHEMA_ID,
+                            nameIdQuery,
+                            nameIdQuery
+                    )
+            );
+            Cursor cursor = db.query(
+                    TABLE_NAME,
+                    new String[]{COLUMN_ID, COLUMN_SERIALIZED_EVENT, COLUMN_PROJECT_NAME, COLUMN_SCHEMA_NAME},
+                    null, null, null, null, null
+            );
+            try {
+                while (cursor.moveToNext()) {
+                    if (cursor.isNull(1)) {
+                        continue;
+                    }
+                    byte[] payload;
+                    try {
+                        payload = Base64.decode(cursor.getString(1), Base64.NO_WRAP);
+                    } catch (IllegalArgumentException e) {
+                        Log.e(Constants.LOGGING_TAG, String.format(Utils.DEFAULT_LOCALE,
+                                "Dropping event %d, it is not valid Base64", cursor.getLong(0)), e);
+                        continue;
+                    }
+                    insert.clearBindings();
+                    insert.bindLong(1, cursor.getLong(0));
+                    insert.bindBlob(2, payload);
+                    // Unbound parameters are null, which maps to NULL_ID
+                    if (!cursor.isNull(2)) {
+                        insert.bindString(3, cursor.getString(2));
+                    }
+                    if (!cursor.isNull(3)) {
+                        insert.bindString(4, cursor.getString(3));
+                    }
+                    insert.executeInsert();
+                }
+            } finally {
+                cursor.close();
+                insert.close();
+            }
+            db.execSQL("DROP TABLE " + TABLE_NAME + ";");
+            db.execSQL(String.format("ALTER TABLE %s RENAME TO %s;", migrationTable, TABLE_NAME));
+
+            createStatsTable(db);
+            DeadLetterStore.createTable(db);
         }
 
         public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            onUpgrade(db, oldVersion, newVersion);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME + ";");
+            db.execSQL("DROP TABLE IF EXISTS " + EventNameDictionary.TABLE_NAME + ";");
+            db.execSQL("DROP TABLE IF EXISTS " + STATS_TABLE_NAME + ";");
+            db.execSQL("DROP TABLE IF EXISTS " + DeadLetterStore.TABLE_NAME + ";");
+            onCreate(db);
         }
     }
 
@@ -89,7 +271,114 @@ class SqliteEventQueue {
         }
         EventsDB dbHelper = EventsDB.getInstance(context);
         this.db = dbHelper.getWritableDatabase();
+        this.names = dbHelper.getNameDictionary();
         this.maxSize = maxSize;
+        this.eventIdPrefix = Installation.id(context) + "-";
+        this.insertStatement = db.compileStatement(
+                String.format(
+                        "INSERT INTO %s (%s, %s, %s, %s) VALUES (?, ?, ?, ?)",
+                        TABLE_NAME,
+                        EventsDB.COLUMN_PAYLOAD,
+                        EventsDB.COLUMN_PROJECT_ID,
+                        EventsDB.COLUMN_SCHEMA_ID,
+                        EventsDB.COLUMN_PRIORITY
+                )
+        );
+        this.ackStatement = db.compileStatement(
+                String.format("DELETE FROM %s WHERE %s <= ? AND %s <= ?", TABLE_NAME, EventsDB.COLUMN_ID, EventsDB.COLUMN_LEASE_EXPIRES_AT)
+        );
+        this.leaseStatement = db.compileStatement(
+                String.format(
+                        "UPDATE %s SET %s = ?, %s = ? WHERE %s BETWEEN ? AND ? AND (%s <= ? OR %s = ?)",
+                        TABLE_NAME,
+                        EventsDB.COLUMN_LEASE_OWNER,
+                        EventsDB.COLUMN_LEASE_EXPIRES_AT,
+                        EventsDB.COLUMN_ID,
+                        EventsDB.COLUMN_LEASE_EXPIRES_AT,
+                        EventsDB.COLUMN_LEASE_OWNER
+                )
+        );
+        this.ownerAckStatement = db.compileStatement(
+                String.format("DELETE FROM %s WHERE %s <= ? AND %s = ?", TABLE_NAME, EventsDB.COLUMN_ID, EventsDB.COLUMN_LEASE_OWNER)
+        );
+        this.releaseStatement = db.compileStatement(
+                String.format(
+                        "UPDATE %s SET %s = NULL, %s = 0 WHERE %s = ?",
+                        TABLE_NAME,
+                        EventsDB.COLUMN_LEASE_OWNER,
+                        EventsDB.COLUMN_LEASE_EXPIRES_AT,
+                        EventsDB.COLUMN_LEASE_OWNER
+                )
+        );
+        this.sizeStatement = compileStatsStatement(EventsDB.STATS_COLUMN_EVENT_COUNT);
+        this.payloadBytesStatement = compileStatsStatement(EventsDB.STATS_COLUMN_PAYLOAD_BYTES);
+        this.evictOldestStatement = compileEvictStatement(EventsDB.COLUMN_ID + " ASC");
+        this.removeStatement = db.compileStatement(
+                String.format(
+                        "DELETE FROM %s WHERE %s IN (SELECT %s FROM %s WHERE %s <= ? ORDER BY %s ASC LIMIT ?)",
+                        TABLE_NAME,
+                        EventsDB.COLUMN_ID,
+                        EventsDB.COLUMN_ID,
+                        TABLE_NAME,
+                        EventsDB.COLUMN_LEASE_EXPIRES_AT,
+                        EventsDB.COLUMN_ID
+                )
+        );
+        this.evictNewestStatement = compileEvictStatement(EventsDB.COLUMN_ID + " DESC");
+        this.evictLowestPriorityStatement = compileEvictStatement(EventsDB.COLUMN_PRIORITY + " ASC, " + EventsDB.COLUMN_ID + " ASC");
+        setEvictionPolicy(EvictionPolicy.OLDEST, DEFAULT_EVICTION_FRACTION);
+    }
+
+    private SQLiteStatement compileStatsStatement(String column) {
+        SQLiteStatement statement = db.compileStatement(
+                String.format("SELECT %s FROM %s WHERE %s = ?", column, EventsDB.STATS_TABLE_NAME, EventsDB.STATS_COLUMN_QUEUE)
+        );
+        statement.bindString(1, TABLE_NAME);
+        return statement;
+    }
+
+    private SQLiteStatement compileEvictStatement(String order) {
+        return db.compileStatement(
+                String.format(
+                        "DELETE FROM %s WHERE %s IN (SELECT %s FROM %s ORDER BY %s LIMIT ?)",
+                        TABLE_NAME,
+                        EventsDB.COLUMN_ID,
+                        EventsDB.COLUMN_ID,
+                        TABLE_NAME,
+                        order
+                )
+        );
+    }
+
+    /**
+     * Sets which events are dropped once the queue grows beyond maxSize. Instead of removing one
+     * event per insert, the queue is shrunk to maxSize minus the given fraction of it in a single
+     * statement, so the next inserts do not have to evict anything.
+     *
+     * @param policy   which events to drop
+     * @param fraction share of maxSize dropped at once, between 0 and 1
+     */
+    void setEvictionPolicy(EvictionPolicy policy, float fraction) {
+        Utils.requireNonNull(policy);
+        if (!(fraction >= 0 && fraction < 1)) {
+            throw new IllegalArgumentException("fraction must be at least 0 and less than 1");
+        }
+        this.evictionPolicy = policy;
+        this.lowWatermark = maxSize - Math.max(1, (int) (maxSize * fraction));
+    }
+
+    /**
+     * Returns how many events were dropped because the queue was full.
+     */
+    long getDroppedEventCount() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * Returns how many times the queue overflowed and had to drop events.
+     */
+    long getEvictionCount() {
+        return evictions.get();
     }
 
     /**
@@ -97,72 +386,212 @@ class SqliteEventQueue {
      *
      * @return size of the queue.
      */
+    @Override
     public long size() {
-        if (sizeCache == null) {
-            sizeCache = new AtomicLong(DatabaseUtils.queryNumEntries(db, TABLE_NAME));
+        synchronized (sizeStatement) {
+            return sizeStatement.simpleQueryForLong();
+        }
+    }
+
+    /**
+     * Get total size of the serialized events in the queue.
+     *
+     * @return size in bytes.
+     */
+    public long payloadBytes() {
+        synchronized (payloadBytesStatement) {
+            return payloadBytesStatement.simpleQueryForLong();
         }
-        return sizeCache.get();
     }
 
     /**
      * Pushes element to queue.
      */
+    @Override
     public void enqueue(Event event) {
         Utils.requireNonNull(event);
-        db.execSQL(
-                String.format(
-                        "INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?)",
-                        TABLE_NAME,
-                        EventsDB.COLUMN_SERIALIZED_EVENT,
-                        EventsDB.COLUMN_PROJECT_NAME,
-                        EventsDB.COLUMN_SCHEMA_NAME
-                ),
-                new Object[]{
-                        event.serialize(),
-                        event.getProjectName(),
-                        event.getSchemaName()
-                });
-        if (sizeCache != null) {
-            sizeCache.incrementAndGet();
+        enqueueAll(Collections.singletonList(event));
+    }
+
+    /**
+     * Pushes elements to queue, committing up to {@link #MAX_EVENTS_PER_TRANSACTION} of them per
+     * transaction.
+     */
+    @Override
+    public void enqueueAll(Collection<? extends Event> events) {
+        Utils.requireNonNull(events);
+        if (events.isEmpty()) {
+            return;
+        }
+        // Resolve names before the transaction, a rollback must not undo dictionary entries.
+        int[] projectIds = new int[events.size()];
+        int[] schemaIds = new int[events.size()];
+        int i = 0;
+        for (Event event : events) {
+            Utils.requireNonNull(event);
+            projectIds[i] = names.idOf(event.getProjectName());
+            schemaIds[i] = names.idOf(event.getSchemaName());
+            i++;
+        }
+
+        int inserted = 0;
+        synchronized (insertStatement) {
+            db.beginTransactionNonExclusive();
+            try {
+                for (Event event : events) {
+                    insertStatement.bindBlob(1, serialize(event));
+                    insertStatement.bindLong(2, projectIds[inserted]);
+                    insertStatement.bindLong(3, schemaIds[inserted]);
+                    insertStatement.bindLong(4, event.getPriority());
+                    insertStatement.executeInsert();
+                    if (++inserted % MAX_EVENTS_PER_TRANSACTION == 0) {
+                        db.setTransactionSuccessful();
+                        db.endTransaction();
+                        db.beginTransactionNonExclusive();
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
         }
         if (size() > maxSize) {
-            remove(1);
+            evict();
+        }
+    }
+
+    private void evict() {
+        EvictionPolicy policy = evictionPolicy;
+        SQLiteStatement statement;
+        switch (policy) {
+            case NEWEST:
+                statement = evictNewestStatement;
+                break;
+            case LOWEST_PRIORITY:
+                statement = evictLowestPriorityStatement;
+                break;
+            case OLDEST:
+            default:
+                statement = evictOldestStatement;
+                break;
+        }
+        long removed;
+        synchronized (statement) {
+            // Checked again, another thread may have evicted in the meantime.
+            long size = size();
+            if (size <= maxSize) {
+                return;
+            }
+            statement.bindLong(1, size - lowWatermark);
+            removed = statement.executeUpdateDelete();
+        }
+        droppedEvents.addAndGet(removed);
+        evictions.incrementAndGet();
+        Log.w(Constants.LOGGING_TAG, String.format(Utils.DEFAULT_LOCALE,
+                "Message queue overflowing, dropped %d events (%s), %d dropped so far", removed, policy, droppedEvents.get()));
+    }
+
+    private byte[] serialize(Event event) {
+        // Only called with the insert statement locked.
+        serializationBuffer.reset();
+        try {
+            event.serializeTo(serializationBuffer);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
         }
+        return serializationBuffer.toByteArray();
     }
 
     /**
-     * Retrieves up to specified amount of elements from queue, without removing them.
+     * Retrieves up to specified amount of elements from queue, without removing them. Pass the id
+     * of the last record to {@link #ack(long)} once they are processed.
+     * <p>
+     * Leases are ignored, use {@link #claim(String, int)} when several consumers may run at once.
      *
      * @param max max number of elements to return.
-     * @return list of elements
+     * @return list of elements, ordered by id
      */
+    @Override
     public List<EventRecord> peek(int max) {
         if (max <= 0) {
             throw new IllegalArgumentException("max must be greater than 0");
         }
 
-        List<EventRecord> results = new ArrayList<>();
         Cursor cursor = db.query(
                 TABLE_NAME,
-                new String[]{
-                        EventsDB.COLUMN_SERIALIZED_EVENT,
-                        EventsDB.COLUMN_PROJECT_NAME,
-                        EventsDB.COLUMN_SCHEMA_NAME
-                },
+                RECORD_COLUMNS,
                 null,
                 null,
                 null,
                 null,
-                "id asc",
+                EventsDB.COLUMN_ID + " asc",
                 String.valueOf(max)
         );
+        return readRecords(cursor);
+    }
+
+    /**
+     * Leases up to specified amount of elements to the given owner, skipping elements leased by
+     * other owners. Leased elements stay in the queue until the owner acknowledges them with
+     * {@link #ack(String, long)}; if the owner dies instead, they become available again once the
+     * lease expires.
+     *
+     * @param owner unique id of the consumer
+     * @param max   max number of elements to return.
+     * @return list of leased elements, ordered by id
+     */
+    @Override
+    public List<EventRecord> claim(String owner, int max) {
+        Utils.requireNonNull(owner);
+        if (max <= 0) {
+            throw new IllegalArgumentException("max must be greater than 0");
+        }
+
+        long now = System.currentTimeMillis();
+        List<EventRecord> results;
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(
+                    TABLE_NAME,
+                    RECORD_COLUMNS,
+                    String.format("%s <= ? OR %s = ?", EventsDB.COLUMN_LEASE_EXPIRES_AT, EventsDB.COLUMN_LEASE_OWNER),
+                    new String[]{String.valueOf(now), owner},
+                    null,
+                    null,
+                    EventsDB.COLUMN_ID + " asc",
+                    String.valueOf(max)
+            );
+            results = readRecords(cursor);
+            if (!results.isEmpty()) {
+                // The claimable rows up to the last returned id are exactly the returned ones.
+                synchronized (leaseStatement) {
+                    leaseStatement.bindString(1, owner);
+                    leaseStatement.bindLong(2, now + DEFAULT_LEASE_DURATION_MILLIS);
+                    leaseStatement.bindLong(3, results.get(0).getId());
+                    leaseStatement.bindLong(4, results.get(results.size() - 1).getId());
+                    leaseStatement.bindLong(5, now);
+                    leaseStatement.bindString(6, owner);
+                    leaseStatement.executeUpdateDelete();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return results;
+    }
+
+    private List<EventRecord> readRecords(Cursor cursor) {
+        List<EventRecord> results = new ArrayList<>();
         try {
             while (cursor.moveToNext()) {
-                @SuppressLint("Range") String serializedEvent = cursor.getString(cursor.getColumnIndex(EventsDB.COLUMN_SERIALIZED_EVENT));
-                @SuppressLint("Range") String projectName = cursor.getString(cursor.getColumnIndex(EventsDB.COLUMN_PROJECT_NAME));
-                @SuppressLint("Range") String schemaName = cursor.getString(cursor.getColumnIndex(EventsDB.COLUMN_SCHEMA_NAME));
+                @SuppressLint("Range") long id = cursor.getLong(cursor.getColumnIndex(EventsDB.COLUMN_ID));
+                @SuppressLint("Range") byte[] payload = cursor.getBlob(cursor.getColumnIndex(EventsDB.COLUMN_PAYLOAD));
+                @SuppressLint("Range") String projectName = names.nameOf(cursor.getInt(cursor.getColumnIndex(EventsDB.COLUMN_PROJECT_ID)));
+                @SuppressLint("Range") String schemaName = names.nameOf(cursor.getInt(cursor.getColumnIndex(EventsDB.COLUMN_SCHEMA_ID)));
 
-                EventRecord eventRecord = new EventRecord(serializedEvent, schemaName, projectName);
+                EventRecord eventRecord = new EventRecord(id, eventIdPrefix + id, payload, schemaName, projectName);
                 results.add(eventRecord);
             }
         } finally {
@@ -173,32 +602,69 @@ class SqliteEventQueue {
         return results;
     }
 
+    /**
+     * Removes every element up to and including the given id, except those leased to a consumer.
+     *
+     * @param lastId id of the last processed record, as returned by {@link #peek(int)}.
+     * @return number of removed elements
+     */
+    @Override
+    public long ack(long lastId) {
+        synchronized (ackStatement) {
+            ackStatement.bindLong(1, lastId);
+            ackStatement.bindLong(2, System.currentTimeMillis());
+            return ackStatement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Removes every element leased by the given owner up to and including the given id.
+     *
+     * @param owner  owner passed to {@link #claim(String, int)}
+     * @param lastId id of the last processed record
+     * @return number of removed elements
+     */
+    @Override
+    public long ack(String owner, long lastId) {
+        Utils.requireNonNull(owner);
+        synchronized (ownerAckStatement) {
+            ownerAckStatement.bindLong(1, lastId);
+            ownerAckStatement.bindString(2, owner);
+            return ownerAckStatement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Gives up every lease held by the given owner, making its elements available to others.
+     *
+     * @param owner owner passed to {@link #claim(String, int)}
+     */
+    @Override
+    public void release(String owner) {
+        Utils.requireNonNull(owner);
+        synchronized (releaseStatement) {
+            releaseStatement.bindString(1, owner);
+            releaseStatement.executeUpdateDelete();
+        }
+    }
+
     /**
      * Removes up to specified amount of elements from queue.
      *
      * @param n amount of elements to remove.
      */
+    @Override
     public void remove(int n) {
-        String deleteQuery = String.format(Utils.DEFAULT_LOCALE,
-                "DELETE FROM %s WHERE `id` IN (SELECT `id` FROM %s ORDER BY `id` ASC limit %d);",
-                TABLE_NAME, TABLE_NAME, n);
-        db.execSQL(deleteQuery);
-        SQLiteStatement stmt = db.compileStatement("SELECT CHANGES()");
-        long result = stmt.simpleQueryForLong();
-        if (sizeCache != null) {
-            sizeCache.getAndAdd(-1L * result);
+        synchronized (removeStatement) {
+            removeStatement.bindLong(1, System.currentTimeMillis());
+            removeStatement.bindLong(2, n);
+            removeStatement.executeUpdateDelete();
         }
-        stmt.close();
     }
 
-    void clear() {
+    @Override
+    public void clear() {
         String deleteQuery = String.format(Utils.DEFAULT_LOCALE, "DELETE FROM %s", TABLE_NAME);
         db.execSQL(deleteQuery);
-        SQLiteStatement stmt = db.compileStatement("SELECT CHANGES()");
-        long result = stmt.simpleQueryForLong();
-        if (sizeCache != null) {
-            sizeCache.set(0L);
-        }
-        stmt.close();
     }
 }
@@ -0,0 +1,62 @@
+package com.logunify.logging.android;
+
+import com.logunify.logging.http.PayloadFormat;
+
+/**
+ * Snapshot of the request bytes sent by this process, see {@link Logger#getUploadMetrics()}.
+ */
+public class UploadMetrics {
+    private final long rawBytesSent;
+    private final long wireBytesSent;
+    private final PayloadFormat payloadFormat;
+    private final String compressionEncoding;
+
+    UploadMetrics(long rawBytesSent, long wireBytesSent, PayloadFormat payloadFormat, String compressionEncoding) {
+        this.rawBytesSent = rawBytesSent;
+        this.wireBytesSent = wireBytesSent;
+        this.payloadFormat = payloadFormat;
+        this.compressionEncoding = compressionEncoding;
+    }
+
+    /**
+     * Returns the number of payload bytes sent, before compression.
+     */
+    public long getRawBytesSent() {
+        return rawBytesSent;
+    }
+
+    /**
+     * Returns the number of request body bytes sent, after compression.
+     */
+    public long getWireBytesSent() {
+        return wireBytesSent;
+    }
+
+    /**
+     * Returns the share of bytes saved by compression, 0 before the first request.
+     */
+    public float getCompressionSavings() {
+        return rawBytesSent > 0 ? 1 - (float) wireBytesSent / rawBytesSent : 0;
+    }
+
+    /**
+     * Returns the format of request bodies, JSON once the receiver rejected the configured one.
+     */
+    public PayloadFormat getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    /**
+     * Returns the Content-Encoding of requests, null if they are sent uncompressed. Differs from
+     * the flush policy once the receiver rejected the configured codec.
+     */
+    public String getCompressionEncoding() {
+        return compressionEncoding;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("UploadMetrics{raw=%d bytes, wire=%d bytes, format=%s, encoding=%s}",
+                rawBytesSent, wireBytesSent, payloadFormat, compressionEncoding);
+    }
+}
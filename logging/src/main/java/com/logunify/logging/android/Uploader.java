@@ -0,0 +1,381 @@
+package com.logunify.logging.android;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.logunify.logging.Constants;
+import com.logunify.logging.event.EventRecord;
+import com.logunify.logging.http.ApiResponse;
+import com.logunify.logging.http.CompressionCodec;
+import com.logunify.logging.http.HttpClient;
+import com.logunify.logging.http.PayloadFormat;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drains the queue into the receiver, in batches kept in flight by a {@link PipelinedUploader}.
+ * Runs in a {@link LogWorker}, or on the {@link ForegroundUploader} thread while the app is
+ * visible.
+ */
+class Uploader {
+    enum Outcome {
+        /**
+         * Nothing left to send, or part of the queue was sent.
+         */
+        SUCCESS,
+        /**
+         * Nothing was sent, sending again later may work.
+         */
+        RETRY,
+        /**
+         * Nothing was sent and the receiver rejected the request.
+         */
+        FAILURE
+    }
+
+    interface Factory {
+        /**
+         * @param name       unique name of the run
+         * @param stopSignal ends the run early
+         */
+        Uploader create(String name, StopSignal stopSignal);
+    }
+
+    interface StopSignal {
+        /**
+         * Returns whether the upload should end, leaving the rest of the queue for later.
+         */
+        boolean isStopped();
+    }
+
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_PAYLOAD_TOO_LARGE = 413;
+    private static final int HTTP_UNPROCESSABLE_ENTITY = 422;
+
+    // Threads are only kept while uploads are running.
+    private static final ExecutorService UPLOAD_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "logunify-upload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Number of times to attempt to send batch request.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Longer retry delays end the run instead of keeping the uploader asleep.
+     */
+    private static final long MAX_IN_RUN_RETRY_DELAY_MILLIS = 10 * 1000;
+
+    // Kept across runs, with the compression and format fallbacks it negotiated.
+    private static HttpClient sharedClient;
+    // Settings the shared client was created with, it may have fallen back from them since
+    private static PayloadFormat sharedClientFormat;
+    private static CompressionCodec sharedClientCodec;
+    private static int sharedClientThresholdBytes;
+
+    private final String name;
+    private final HttpClient client;
+    private final AppMetadata appMetadata;
+    private final EventQueue preflightQueue;
+    private final AdaptiveBatchSizer batchSizer;
+    private final RetryPolicy retryPolicy;
+    private final DeadLetterStore deadLetters;
+    private final CircuitBreaker circuitBreaker;
+    private final int window;
+    private final StopSignal stopSignal;
+    // Whether the last failure may succeed if retried later
+    private volatile boolean retryable = true;
+    // Updated from the upload threads while the run is in progress
+    private final AtomicLong sentEvents = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    /**
+     * @param name   unique name of the run, for logs and queue leases
+     * @param window max number of requests in flight
+     */
+    Uploader(String name, HttpClient client, AppMetadata appMetadata, EventQueue preflightQueue,
+             AdaptiveBatchSizer batchSizer, RetryPolicy retryPolicy, DeadLetterStore deadLetters,
+             CircuitBreaker circuitBreaker, int window, StopSignal stopSignal) {
+        this.name = name;
+        this.client = client;
+        this.appMetadata = appMetadata;
+        this.preflightQueue = preflightQueue;
+        this.batchSizer = batchSizer;
+        this.retryPolicy = retryPolicy;
+        this.deadLetters = deadLetters;
+        this.circuitBreaker = circuitBreaker;
+        this.window = window;
+        this.stopSignal = stopSignal;
+    }
+
+    /**
+     * Returns the client for the given receiver and settings, shared by every run of the process.
+     *
+     * @param format         encoding of the request bodies
+     * @param codec          codec to compress requests with, null to send them uncompressed
+     * @param thresholdBytes payloads smaller than this are sent uncompressed
+     */
+    static synchronized HttpClient getClient(String receiverUrl, String apiKey, PayloadFormat format,
+                                             CompressionCodec codec, int thresholdBytes) {
+        if (sharedClient == null || !sharedClient.isFor(receiverUrl, apiKey) || sharedClientFormat != format
+                || sharedClientCodec != codec || sharedClientThresholdBytes != thresholdBytes) {
+            sharedClient = new HttpClient(receiverUrl, apiKey);
+            sharedClient.setPayloadFormat(format);
+            sharedClient.setCompression(codec, thresholdBytes);
+            sharedClientFormat = format;
+            sharedClientCodec = codec;
+            sharedClientThresholdBytes = thresholdBytes;
+        }
+        return sharedClient;
+    }
+
+    /**
+     * Returns how long uploads should wait before the receiver is contacted again, 0 if they may
+     * start now.
+     */
+    long getRemainingBackoffMillis() {
+        return Math.max(circuitBreaker.getRemainingOpenMillis(), retryPolicy.getRemainingDelayMillis());
+    }
+
+    /**
+     * Returns whether events are left in the queue.
+     */
+    boolean hasPendingEvents() {
+        return preflightQueue.size() > 0;
+    }
+
+    /**
+     * Returns the number of events sent so far, including those the receiver rejected for good.
+     */
+    long getSentEvents() {
+        return sentEvents.get();
+    }
+
+    /**
+     * Returns the serialized size of the events sent so far, before compression.
+     */
+    long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    Outcome run() {
+        long size = preflightQueue.size();
+        Log.d(Constants.LOGGING_TAG, String.format("Uploader (%s) started, message queue size: %d", name, size));
+        if (size <= 0) {
+            return Outcome.SUCCESS;
+        }
+
+        if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+            Log.d(Constants.LOGGING_TAG, String.format("Uploader (%s) skipped, the receiver is failing", name));
+            return Outcome.RETRY;
+        }
+
+        long delay = retryPolicy.getRemainingDelayMillis();
+        if (delay > 0) {
+            Log.d(Constants.LOGGING_TAG, String.format("Uploader (%s) backing off for %d ms after failed uploads", name, delay));
+            return Outcome.RETRY;
+        }
+
+        // sendInBatches() only returns false if nothing was sent
+        boolean success = sendInBatches();
+
+        if (!success) {
+            Log.e(Constants.LOGGING_TAG, String.format("Uploader (%s) failed to send logs", name));
+            return retryable ? Outcome.RETRY : Outcome.FAILURE;
+        } else {
+            Log.d(Constants.LOGGING_TAG, String.format("Uploader (%s) succeeded in sending logs, message queue size: %d ", name, preflightQueue.size()));
+            return Outcome.SUCCESS;
+        }
+    }
+
+    private boolean sendInBatches() {
+        PipelinedUploader uploader = new PipelinedUploader(preflightQueue, batchSizer, this::sendEvents, UPLOAD_EXECUTOR, window);
+        // Rows claimed by this run are skipped by any other run at the same time.
+        long sent = uploader.drain(name, stopSignal);
+        // Only false if nothing was sent
+        return sent > 0 || !uploader.hasFailed();
+    }
+
+    /**
+     * Sends the given events, or a prefix of them if the receiver finds the batch too large.
+     *
+     * @return number of events sent
+     */
+    private int sendEvents(List<EventRecord> eventRecords) {
+        int sent = attemptSendEvents(eventRecords, MAX_ATTEMPTS);
+        long bytes = 0;
+        for (int i = 0; i < sent; ++i) {
+            bytes += eventRecords.get(i).getSerializedEventLength();
+        }
+        sentEvents.addAndGet(sent);
+        sentBytes.addAndGet(bytes);
+        return sent;
+    }
+
+    private int attemptSendEvents(List<EventRecord> events, int leftAttempts) {
+        if (leftAttempts == 0) {
+            return 0;
+        }
+        leftAttempts -= 1;
+        if (!circuitBreaker.allowRequest()) {
+            Log.d(Constants.LOGGING_TAG, String.format("Uploader (%s), circuit breaker is open, not sending", name));
+            retryable = true;
+            return 0;
+        }
+        try {
+            Log.d(Constants.LOGGING_TAG, String.format("Attempting to send bulk request with %d events.", events.size()));
+            long start = SystemClock.elapsedRealtime();
+            ApiResponse response;
+            try {
+                response = client.sendEvents(events, appMetadata);
+            } catch (RuntimeException e) {
+                // Would otherwise hold the half-open probe forever
+                circuitBreaker.onAborted();
+                throw e;
+            }
+            long latency = SystemClock.elapsedRealtime() - start;
+            RetryPolicy.Failure failure = getRequestFailure(response);
+            if (!response.isSuccessful() && failure.isRetryable()) {
+                circuitBreaker.onFailure();
+            } else {
+                // Rejected requests still show the receiver is up
+                circuitBreaker.onSuccess();
+            }
+
+            if (response.getCode() == HTTP_PAYLOAD_TOO_LARGE) {
+                batchSizer.onTooLarge();
+                Log.e(Constants.LOGGING_TAG, String.format("Uploader (%s), batch of %d events is too large, shrinking batch size to %d",
+                        name, events.size(), batchSizer.getBatchSize()));
+                return attemptSmallerBatch(events, leftAttempts);
+            } else if (!response.isSuccessful() && !isEventRejection(response)) {
+                Log.e(Constants.LOGGING_TAG, String.format("Uploader (%s), received bad status code (%d) returned from api. Response: %s",
+                        name, response.getCode(), response.getBody()));
+                if (!waitBeforeRetry(failure, response.getRetryAfterMillis(), leftAttempts)) {
+                    return 0;
+                }
+                return attemptSendEvents(events, leftAttempts);
+            } else if (response.hasError()) {
+                Log.e(Constants.LOGGING_TAG, String.format("Uploader (%s), unable to send all documents. Response: %s",
+                        name,
+                        response.getBody()));
+                int done = handleEventResults(events, response);
+                if (done == 0) {
+                    if (!waitBeforeRetry(RetryPolicy.Failure.fromStatusCode(response.getEventStatus(0)), response.getRetryAfterMillis(), leftAttempts)) {
+                        return 0;
+                    }
+                    return attemptSendEvents(events, leftAttempts);
+                }
+                batchSizer.onSuccess(events.size(), latency);
+                return done;
+            }
+
+            batchSizer.onSuccess(events.size(), latency);
+            retryPolicy.onSuccess();
+            Log.d(Constants.LOGGING_TAG, String.format("Uploader (%s), successfully sent all %d events. Response: %s",
+                    name,
+                    events.size(),
+                    response.getBody()));
+            return events.size();
+        } catch (SocketTimeoutException e) {
+            circuitBreaker.onFailure();
+            batchSizer.onTooLarge();
+            Log.e(Constants.LOGGING_TAG, String.format("Uploader (%s), request timed out, shrinking batch size to %d", name, batchSizer.getBatchSize()), e);
+            if (!waitBeforeRetry(RetryPolicy.Failure.NETWORK, -1, leftAttempts)) {
+                return 0;
+            }
+            if (events.size() > 1) {
+                return attemptSmallerBatch(events, leftAttempts);
+            }
+            // A single event cannot be split, it is retried like other network failures
+            return attemptSendEvents(events, leftAttempts);
+        } catch (IOException e) {
+            circuitBreaker.onFailure();
+            Log.e(Constants.LOGGING_TAG, String.format("Uploader (%s), error while sending logs: %s", name, e.getMessage()), e);
+            if (!waitBeforeRetry(RetryPolicy.Failure.NETWORK, -1, leftAttempts)) {
+                return 0;
+            }
+            return attemptSendEvents(events, leftAttempts);
+        }
+    }
+
+    /**
+     * Returns whether the receiver rejected events of the request, telling which in per-event
+     * results. Without them the request as a whole is at fault, e.g. its envelope or encoding, and
+     * its events must not be dead-lettered.
+     */
+    private static boolean isEventRejection(ApiResponse response) {
+        int code = response.getCode();
+        return (code == HTTP_BAD_REQUEST || code == HTTP_UNPROCESSABLE_ENTITY) && response.getEventResultCount() > 0;
+    }
+
+    private static RetryPolicy.Failure getRequestFailure(ApiResponse response) {
+        int code = response.getCode();
+        if ((code == HTTP_BAD_REQUEST || code == HTTP_UNPROCESSABLE_ENTITY) && !isEventRejection(response)) {
+            return RetryPolicy.Failure.REQUEST;
+        }
+        return RetryPolicy.Failure.fromStatusCode(code);
+    }
+
+    /**
+     * Moves permanently rejected events to the dead letter store, up to the first event which may
+     * be accepted if sent again.
+     *
+     * @return number of events accepted or rejected, a prefix of the batch
+     */
+    private int handleEventResults(List<EventRecord> events, ApiResponse response) {
+        for (int i = 0; i < events.size(); ++i) {
+            if (i >= response.getEventResultCount()) {
+                // No result for this event, only those reported as rejected are dead-lettered
+                return i;
+            }
+            int status = response.getEventStatus(i);
+            if (status >= 200 && status < 300) {
+                continue;
+            }
+            if (RetryPolicy.Failure.fromStatusCode(status).isRetryable()) {
+                // Events after it are sent again with it, acks only cover a prefix.
+                return i;
+            }
+            deadLetters.add(events.get(i), status, response.getEventError(i));
+        }
+        return events.size();
+    }
+
+    /**
+     * Records the failure and sleeps until the request may be sent again.
+     *
+     * @return false if the request must not be retried in this run
+     */
+    private boolean waitBeforeRetry(RetryPolicy.Failure failure, long retryAfterMillis, int leftAttempts) {
+        long delay = retryPolicy.onFailure(failure, retryAfterMillis);
+        if (delay < 0) {
+            Log.e(Constants.LOGGING_TAG, String.format("Uploader (%s), request rejected, not retrying", name));
+            retryable = false;
+            return false;
+        }
+        retryable = true;
+        if (leftAttempts == 0 || delay > MAX_IN_RUN_RETRY_DELAY_MILLIS) {
+            // WorkManager runs the worker again later, which waits for the rest of the delay.
+            Log.d(Constants.LOGGING_TAG, String.format("Uploader (%s), retrying in %d ms in a later run", name, delay));
+            return false;
+        }
+        Log.d(Constants.LOGGING_TAG, String.format("Uploader (%s), retrying in %d ms", name, delay));
+        SystemClock.sleep(delay);
+        return !stopSignal.isStopped();
+    }
+
+    private int attemptSmallerBatch(List<EventRecord> events, int leftAttempts) {
+        if (events.size() <= 1) {
+            return 0;
+        }
+        return attemptSendEvents(events.subList(0, Math.min(events.size() - 1, batchSizer.getBatchSize())), leftAttempts);
+    }
+}
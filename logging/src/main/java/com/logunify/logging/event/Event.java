@@ -1,9 +1,35 @@
 package com.logunify.logging.event;
 
+import android.util.Base64;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
 public interface Event {
     String getSchemaName();
 
     String getProjectName();
 
+    /**
+     * Returns how important the event is, events with lower values are dropped first when the
+     * queue is full and uses {@link com.logunify.logging.android.EvictionPolicy#LOWEST_PRIORITY}.
+     */
+    default int getPriority() {
+        return 0;
+    }
+
+    /**
+     * Returns the serialized event encoded in Base64.
+     */
     String serialize();
+
+    /**
+     * Writes the serialized event as raw bytes. Generated events override this to write their
+     * protobuf encoding directly instead of decoding {@link #serialize()}.
+     *
+     * @param out stream to write to
+     */
+    default void serializeTo(OutputStream out) throws IOException {
+        out.write(Base64.decode(serialize(), Base64.NO_WRAP));
+    }
 }
@@ -1,27 +1,104 @@
 package com.logunify.logging.event;
 
+import android.util.Base64;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Writer;
+
 public class EventRecord {
     private static final String JSON_KEY_SERIALIZED_EVENT = "serializedEvent";
     private static final String JSON_KEY_SCHEMA_NAME = "schemaName";
     private static final String JSON_KEY_PROJECT_NAME = "projectName";
+    private static final String JSON_KEY_EVENT_ID = "eventId";
+
+    /**
+     * Id of a record which has not been read from a queue.
+     */
+    public static final long NO_ID = -1;
 
-    private final String serializedEvent;
+    private final long id;
+    private final String eventId;
+    // At least one of the two is set, the other one is derived on first use.
+    private byte[] payload;
+    private String serializedEvent;
     private final String schemaName;
     private final String projectName;
 
     public EventRecord(String serializedEvent, String schemaName, String projectName) {
+        this(NO_ID, serializedEvent, schemaName, projectName);
+    }
+
+    public EventRecord(long id, String serializedEvent, String schemaName, String projectName) {
+        this.id = id;
+        this.eventId = null;
         this.serializedEvent = serializedEvent;
         this.schemaName = schemaName;
         this.projectName = projectName;
     }
 
+    public EventRecord(long id, byte[] payload, String schemaName, String projectName) {
+        this(id, null, payload, schemaName, projectName);
+    }
+
+    /**
+     * @param eventId id of the event, stable across uploads so the receiver can drop duplicates
+     */
+    public EventRecord(long id, String eventId, byte[] payload, String schemaName, String projectName) {
+        this.id = id;
+        this.eventId = eventId;
+        this.payload = payload;
+        this.schemaName = schemaName;
+        this.projectName = projectName;
+    }
+
+    /**
+     * Returns the position of the record in the queue it was read from, ids grow with insertion
+     * order.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the id sent to the receiver, or null if the queue does not assign ids.
+     */
+    public String getEventId() {
+        return eventId;
+    }
+
+    /**
+     * Returns the serialized event encoded in Base64.
+     */
     public String getSerializedEvent() {
+        if (serializedEvent == null) {
+            serializedEvent = Base64.encodeToString(payload, Base64.NO_WRAP);
+        }
         return serializedEvent;
     }
 
+    /**
+     * Returns the serialized event as raw bytes.
+     */
+    public byte[] getPayload() {
+        if (payload == null) {
+            payload = Base64.decode(serializedEvent, Base64.NO_WRAP);
+        }
+        return payload;
+    }
+
+    /**
+     * Returns the length of {@link #getSerializedEvent()}, without encoding the payload.
+     */
+    public int getSerializedEventLength() {
+        if (serializedEvent != null) {
+            return serializedEvent.length();
+        }
+        return (payload.length + 2) / 3 * 4;
+    }
+
     public String getSchemaName() {
         return schemaName;
     }
@@ -32,10 +109,41 @@ public class EventRecord {
 
     public JSONObject toJson() throws JSONException {
         JSONObject jsonObj = new JSONObject();
-        jsonObj.put(JSON_KEY_SERIALIZED_EVENT, serializedEvent);
+        jsonObj.put(JSON_KEY_SERIALIZED_EVENT, getSerializedEvent());
         jsonObj.put(JSON_KEY_SCHEMA_NAME, schemaName);
         jsonObj.put(JSON_KEY_PROJECT_NAME, projectName);
+        jsonObj.put(JSON_KEY_EVENT_ID, eventId);
 
         return jsonObj;
     }
+
+    /**
+     * Writes the same JSON as {@link #toJson()}, without building the object or keeping the
+     * Base64 encoded payload around.
+     *
+     * @param writer writer to write to
+     */
+    public void writeJson(Writer writer) throws IOException {
+        String encoded = serializedEvent != null ? serializedEvent : Base64.encodeToString(payload, Base64.NO_WRAP);
+        writer.write('{');
+        boolean first = writeField(writer, true, JSON_KEY_SERIALIZED_EVENT, encoded);
+        first = writeField(writer, first, JSON_KEY_SCHEMA_NAME, schemaName);
+        first = writeField(writer, first, JSON_KEY_PROJECT_NAME, projectName);
+        writeField(writer, first, JSON_KEY_EVENT_ID, eventId);
+        writer.write('}');
+    }
+
+    private static boolean writeField(Writer writer, boolean first, String key, String value) throws IOException {
+        // Null fields are left out, as JSONObject.put does
+        if (value == null) {
+            return first;
+        }
+        if (!first) {
+            writer.write(',');
+        }
+        writer.write(JSONObject.quote(key));
+        writer.write(':');
+        writer.write(JSONObject.quote(value));
+        return false;
+    }
 }
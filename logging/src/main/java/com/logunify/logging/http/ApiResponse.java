@@ -4,10 +4,12 @@ import android.util.Log;
 
 import com.logunify.logging.Constants;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,8 +17,18 @@ import okhttp3.Response;
 
 /**
  * Api response wrapper.
+ * <p>
+ * The receiver may report the result of every event of a bulk request, in request order:
+ * <pre>
+ * {"errors": true, "items": [{"status": 200}, {"status": 400, "error": "invalid event"}]}
+ * </pre>
+ * Items wrapped in an action object, as in {@code {"index": {"status": 200}}}, are accepted too.
  */
 public class ApiResponse {
+    private static final String JSON_KEY_ITEMS = "items";
+    private static final String JSON_KEY_STATUS = "status";
+    private static final String JSON_KEY_ERROR = "error";
+
     private Response httpResponse;
     private JSONObject json;
     private String body;
@@ -51,19 +63,98 @@ public class ApiResponse {
         return httpResponse.isSuccessful();
     }
 
+    /**
+     * Returns the errors of rejected events, keyed by their position in the request.
+     */
     public Map<String, String> getErrors() {
-        return new HashMap<>();
+        Map<String, String> errors = new HashMap<>();
+        for (int i = 0; i < getEventResultCount(); ++i) {
+            if (!isSuccessful(getEventStatus(i))) {
+                errors.put(String.valueOf(i), getEventError(i));
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Returns the number of per-event results in the response, 0 if the receiver only answered
+     * for the whole batch.
+     */
+    public int getEventResultCount() {
+        JSONArray items = json != null ? json.optJSONArray(JSON_KEY_ITEMS) : null;
+        return items != null ? items.length() : 0;
+    }
+
+    /**
+     * Returns the status of the event at the given position in the request, the status of the
+     * response if there is no result for it.
+     */
+    public int getEventStatus(int index) {
+        JSONObject item = getItem(index);
+        return item != null ? item.optInt(JSON_KEY_STATUS, getCode()) : getCode();
+    }
+
+    /**
+     * Returns the error of the event at the given position in the request, or null.
+     */
+    public String getEventError(int index) {
+        JSONObject item = getItem(index);
+        if (item == null || !item.has(JSON_KEY_ERROR)) {
+            return null;
+        }
+        return item.opt(JSON_KEY_ERROR).toString();
+    }
+
+    private JSONObject getItem(int index) {
+        JSONArray items = json != null ? json.optJSONArray(JSON_KEY_ITEMS) : null;
+        if (items == null) {
+            return null;
+        }
+        JSONObject item = items.optJSONObject(index);
+        if (item != null && !item.has(JSON_KEY_STATUS) && item.length() == 1) {
+            // Unwrap {"<action>": {"status": ...}}
+            JSONObject wrapped = item.optJSONObject(item.keys().next());
+            if (wrapped != null) {
+                return wrapped;
+            }
+        }
+        return item;
+    }
+
+    private static boolean isSuccessful(int status) {
+        return status >= 200 && status < 300;
     }
 
     public String getBody() {
         return body;
     }
 
+    /**
+     * Returns whether the request failed, or some of its events were not accepted.
+     */
     public boolean hasError() {
-        return !isSuccessful();
+        return !isSuccessful() || !getErrors().isEmpty();
     }
 
     public int getCode() {
         return httpResponse.code();
     }
+
+    /**
+     * Returns the delay asked for by the Retry-After header, given in seconds or as a date.
+     *
+     * @return delay in milliseconds, or -1 without a valid header
+     */
+    public long getRetryAfterMillis() {
+        String retryAfter = httpResponse.header("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = httpResponse.headers().getDate("Retry-After");
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
 }
\ No newline at end of file
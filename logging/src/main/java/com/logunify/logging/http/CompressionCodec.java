@@ -0,0 +1,48 @@
+package com.logunify.logging.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses request bodies sent by {@link HttpClient}.
+ */
+public interface CompressionCodec {
+    CompressionCodec GZIP = new CompressionCodec() {
+        @Override
+        public String getEncoding() {
+            return "gzip";
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out);
+        }
+    };
+
+    CompressionCodec DEFLATE = new CompressionCodec() {
+        @Override
+        public String getEncoding() {
+            return "deflate";
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new DeflaterOutputStream(out);
+        }
+    };
+
+    /**
+     * Returns the value of the Content-Encoding header of compressed requests.
+     */
+    String getEncoding();
+
+    /**
+     * Wraps the given stream, closing the returned stream must finish the compressed data.
+     *
+     * @param out stream receiving the compressed bytes
+     * @return stream to write the uncompressed bytes to
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+}
@@ -0,0 +1,225 @@
+package com.logunify.logging.http;
+
+import android.util.Log;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.logunify.logging.Constants;
+import com.logunify.logging.android.AppMetadata;
+import com.logunify.logging.event.EventRecord;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Bulk request body written straight to the connection, one event at a time, instead of building
+ * the whole document in memory first. It can be written more than once, for retries.
+ */
+class EventsRequestBody extends RequestBody {
+    // Rough size of the JSON keys, punctuation and id around each event.
+    private static final int EVENT_OVERHEAD_BYTES = 112;
+
+    private final List<EventRecord> events;
+    private final AppMetadata appMetadata;
+    private final PayloadFormat format;
+    private final CompressionCodec codec;
+    private long rawBytes;
+    private long wireBytes;
+
+    /**
+     * @param codec codec compressing the body, or null to send it as is
+     */
+    EventsRequestBody(List<EventRecord> events, AppMetadata appMetadata, PayloadFormat format, CompressionCodec codec) {
+        this.events = events;
+        this.appMetadata = appMetadata;
+        this.format = format;
+        this.codec = codec;
+    }
+
+    /**
+     * Estimates the uncompressed size of the body without writing it.
+     */
+    static long estimateLength(List<EventRecord> events) {
+        long length = 0;
+        for (EventRecord event : events) {
+            length += event.getSerializedEventLength() + EVENT_OVERHEAD_BYTES;
+        }
+        return length;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return format.getMediaType();
+    }
+
+    /**
+     * Returns the number of bytes of the last write, before compression.
+     */
+    long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * Returns the number of bytes of the last write, after compression.
+     */
+    long getWireBytes() {
+        return wireBytes;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        CountingOutputStream wire = new CountingOutputStream(sink.outputStream(), false);
+        CountingOutputStream raw = new CountingOutputStream(codec != null ? codec.compress(wire) : wire, true);
+        if (format == PayloadFormat.PROTOBUF) {
+            writeProtobuf(raw);
+        } else {
+            writeJson(raw);
+        }
+        // Finishes the compressed stream, the sink itself is left open for OkHttp.
+        raw.close();
+        rawBytes = raw.count;
+        wireBytes = wire.count;
+    }
+
+    private void writeJson(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write("{\"");
+        writer.write(HttpClient.PAYLOAD_KEY_EVENTS);
+        writer.write("\":[");
+        for (int i = 0; i < events.size(); ++i) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            events.get(i).writeJson(writer);
+        }
+        writer.write("],\"");
+        writer.write(HttpClient.PAYLOAD_KEY_APP_METADATA);
+        writer.write("\":");
+        try {
+            writer.write(appMetadata.toJSON().toString());
+        } catch (JSONException e) {
+            Log.e(Constants.LOGGING_TAG, "Error when preparing JSON payload", e);
+            writer.write(JSONObject.NULL.toString());
+        }
+        writer.write('}');
+        writer.flush();
+    }
+
+    private void writeProtobuf(OutputStream out) throws IOException {
+        Map<String, Integer> nameIds = new LinkedHashMap<>();
+        int[] schemaIds = new int[events.size()];
+        int[] projectIds = new int[events.size()];
+        for (int i = 0; i < events.size(); ++i) {
+            schemaIds[i] = nameId(nameIds, events.get(i).getSchemaName());
+            projectIds[i] = nameId(nameIds, events.get(i).getProjectName());
+        }
+
+        CodedOutputStream coded = CodedOutputStream.newInstance(out);
+        int metadataSize = CodedOutputStream.computeInt32Size(1, appMetadata.getVersionCode());
+        if (appMetadata.getVersionName() != null) {
+            metadataSize += CodedOutputStream.computeStringSize(2, appMetadata.getVersionName());
+        }
+        if (appMetadata.getInstallationID() != null) {
+            metadataSize += CodedOutputStream.computeStringSize(3, appMetadata.getInstallationID());
+        }
+        coded.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        coded.writeUInt32NoTag(metadataSize);
+        coded.writeInt32(1, appMetadata.getVersionCode());
+        if (appMetadata.getVersionName() != null) {
+            coded.writeString(2, appMetadata.getVersionName());
+        }
+        if (appMetadata.getInstallationID() != null) {
+            coded.writeString(3, appMetadata.getInstallationID());
+        }
+
+        for (String name : nameIds.keySet()) {
+            coded.writeString(2, name);
+        }
+
+        for (int i = 0; i < events.size(); ++i) {
+            byte[] payload = events.get(i).getPayload();
+            String eventId = events.get(i).getEventId();
+            int eventSize = CodedOutputStream.computeByteArraySize(3, payload);
+            if (eventId != null) {
+                eventSize += CodedOutputStream.computeStringSize(4, eventId);
+            }
+            if (schemaIds[i] != 0) {
+                eventSize += CodedOutputStream.computeUInt32Size(1, schemaIds[i]);
+            }
+            if (projectIds[i] != 0) {
+                eventSize += CodedOutputStream.computeUInt32Size(2, projectIds[i]);
+            }
+            coded.writeTag(3, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            coded.writeUInt32NoTag(eventSize);
+            if (schemaIds[i] != 0) {
+                coded.writeUInt32(1, schemaIds[i]);
+            }
+            if (projectIds[i] != 0) {
+                coded.writeUInt32(2, projectIds[i]);
+            }
+            coded.writeByteArray(3, payload);
+            if (eventId != null) {
+                coded.writeString(4, eventId);
+            }
+        }
+        coded.flush();
+    }
+
+    private static int nameId(Map<String, Integer> nameIds, String name) {
+        if (name == null) {
+            return 0;
+        }
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = nameIds.size() + 1;
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final boolean closeUnderlying;
+        long count;
+
+        CountingOutputStream(OutputStream out, boolean closeUnderlying) {
+            super(out);
+            this.closeUnderlying = closeUnderlying;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closeUnderlying) {
+                out.close();
+            } else {
+                out.flush();
+            }
+        }
+    }
+}
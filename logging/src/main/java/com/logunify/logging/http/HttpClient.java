@@ -7,71 +7,223 @@ import com.logunify.logging.android.AppMetadata;
 import com.logunify.logging.android.Utils;
 import com.logunify.logging.event.EventRecord;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.Buffer;
 
 public class HttpClient {
     static final String PAYLOAD_KEY_EVENTS = "events";
     static final String PAYLOAD_KEY_APP_METADATA = "app_metadata";
+    /**
+     * Payloads smaller than this are sent uncompressed, compressing them saves too little.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD_BYTES = 1024;
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+    static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    private static OkHttpClient sharedClient;
 
-    private final OkHttpClient client = new OkHttpClient();
+    // Null to use the shared client
+    private final OkHttpClient client;
     private final String receiverUrl;
     private final String apiKey;
+    private volatile PayloadFormat payloadFormat = PayloadFormat.JSON;
+    private volatile CompressionCodec compressionCodec = CompressionCodec.GZIP;
+    private volatile int compressionThresholdBytes = DEFAULT_COMPRESSION_THRESHOLD_BYTES;
+    private final AtomicLong rawBytesSent = new AtomicLong();
+    private final AtomicLong wireBytesSent = new AtomicLong();
 
     public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
     public HttpClient(String receiverUrl, String apiKey) {
         Utils.requireNonNull(receiverUrl);
         Utils.requireNonNull(apiKey);
+        this.client = null;
+        this.receiverUrl = normalizeUrl(receiverUrl);
+        this.apiKey = apiKey;
+    }
+
+    /**
+     * @param client client sending the requests, instead of the one set with
+     *               {@link #setSharedClient(OkHttpClient)}
+     */
+    public HttpClient(String receiverUrl, String apiKey, OkHttpClient client) {
+        Utils.requireNonNull(receiverUrl);
+        Utils.requireNonNull(apiKey);
+        Utils.requireNonNull(client);
+        this.client = client;
+        this.receiverUrl = normalizeUrl(receiverUrl);
+        this.apiKey = apiKey;
+    }
+
+    /**
+     * Returns the client used by every instance created without one. Its connection pool outlives
+     * workers, so consecutive uploads reuse the same connection, multiplexed over HTTP/2 when the
+     * receiver supports it.
+     */
+    public static synchronized OkHttpClient getSharedClient() {
+        if (sharedClient == null) {
+            sharedClient = new OkHttpClient();
+        }
+        return sharedClient;
+    }
+
+    /**
+     * Replaces the shared client, so the logger can use the connection pool, cache and interceptors
+     * of the app's own client. Applies to every instance created without its own client.
+     *
+     * @param client client to share
+     */
+    public static synchronized void setSharedClient(OkHttpClient client) {
+        Utils.requireNonNull(client);
+        sharedClient = client;
+    }
+
+    /**
+     * Returns whether this client sends to the given receiver with the given key.
+     */
+    public boolean isFor(String receiverUrl, String apiKey) {
+        return this.receiverUrl.equals(normalizeUrl(receiverUrl)) && this.apiKey.equals(apiKey);
+    }
+
+    private static String normalizeUrl(String receiverUrl) {
         receiverUrl = receiverUrl.trim();
         if (receiverUrl.endsWith("/")) {
             receiverUrl = receiverUrl.substring(0, receiverUrl.length() - 1);
         }
-        this.receiverUrl = receiverUrl;
-        this.apiKey = apiKey;
+        return receiverUrl;
+    }
+
+    /**
+     * Sets how request bodies are compressed, gzip above {@link #DEFAULT_COMPRESSION_THRESHOLD_BYTES}
+     * by default. If the receiver rejects the encoding, requests are sent uncompressed from then on.
+     *
+     * @param codec          codec to use, or null to disable compression
+     * @param thresholdBytes payloads smaller than this are sent uncompressed
+     */
+    public void setCompression(CompressionCodec codec, int thresholdBytes) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("thresholdBytes must not be negative");
+        }
+        this.compressionCodec = codec;
+        this.compressionThresholdBytes = thresholdBytes;
+    }
+
+    /**
+     * Sets how request bodies are encoded, JSON by default. If the receiver rejects the format,
+     * requests are sent as JSON from then on.
+     *
+     * @param format format to use
+     */
+    public void setPayloadFormat(PayloadFormat format) {
+        Utils.requireNonNull(format);
+        this.payloadFormat = format;
+    }
+
+    /**
+     * Returns the format in use, JSON once the receiver rejected another one.
+     */
+    public PayloadFormat getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    /**
+     * Returns the codec in use, null if requests are sent uncompressed.
+     */
+    public CompressionCodec getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    /**
+     * Returns the number of payload bytes sent, before compression.
+     */
+    public long getRawBytesSent() {
+        return rawBytesSent.get();
+    }
+
+    /**
+     * Returns the number of request body bytes sent, after compression.
+     */
+    public long getWireBytesSent() {
+        return wireBytesSent.get();
     }
 
     RequestBody buildRequestBody(List<EventRecord> events, AppMetadata appMetadata) {
-        JSONObject payloadJson = new JSONObject();
-        try {
-            JSONArray eventsInJson = new JSONArray();
-            for (EventRecord event : events) {
-                eventsInJson.put(event.toJson());
+        return new EventsRequestBody(events, appMetadata, PayloadFormat.JSON, null);
+    }
+
+    public ApiResponse sendEvents(List<EventRecord> events, AppMetadata appMetadata) throws IOException {
+        String idempotencyKey = idempotencyKey(events);
+        while (true) {
+            PayloadFormat format = payloadFormat;
+            CompressionCodec codec = compressionCodec;
+            if (codec != null && EventsRequestBody.estimateLength(events) < compressionThresholdBytes) {
+                codec = null;
+            }
+            Response response = post(new EventsRequestBody(events, appMetadata, format, codec), codec != null ? codec.getEncoding() : null, idempotencyKey);
+            if (response.code() != HTTP_UNSUPPORTED_MEDIA_TYPE || (format == PayloadFormat.JSON && codec == null)) {
+                return ApiResponse.fromHttpResponse(response);
             }
+            response.close();
 
-            payloadJson.put(PAYLOAD_KEY_EVENTS, eventsInJson);
-            payloadJson.put(PAYLOAD_KEY_APP_METADATA, appMetadata.toJSON());
-        } catch (JSONException e) {
-            Log.e(Constants.LOGGING_TAG, "Error when preparing JSON payload", e);
+            // Fall back one step at a time, the format is the more likely to be unsupported.
+            if (format != PayloadFormat.JSON) {
+                Log.w(Constants.LOGGING_TAG, String.format("Receiver does not accept %s requests, falling back to JSON", format));
+                payloadFormat = PayloadFormat.JSON;
+            } else {
+                Log.w(Constants.LOGGING_TAG, String.format("Receiver does not accept %s encoded requests, disabling compression", codec.getEncoding()));
+                compressionCodec = null;
+            }
         }
+    }
 
-        return RequestBody.create(
-                payloadJson.toString(),
-                MediaType.parse("application/json; charset=utf-8"));
+    /**
+     * Returns the key identifying the content of the batch, the same for every attempt to send it.
+     * It is derived from the ids of the events sent, so requests with different events never share
+     * a key, whatever batches they were claimed or split in.
+     *
+     * @return the key, or null if the events have no ids
+     */
+    public static String idempotencyKey(List<EventRecord> events) {
+        if (events.isEmpty()) {
+            return null;
+        }
+        Buffer ids = new Buffer();
+        for (EventRecord event : events) {
+            if (event.getEventId() == null) {
+                return null;
+            }
+            ids.writeUtf8(event.getEventId()).writeByte('\n');
+        }
+        return ids.sha256().hex();
     }
 
-    public ApiResponse sendEvents(List<EventRecord> events, AppMetadata appMetadata) throws IOException {
-        Request request = new Request.Builder()
-                .addHeader(
-                        "X-Auth-Token", apiKey)
+    private Response post(EventsRequestBody body, String contentEncoding, String idempotencyKey) throws IOException {
+        // Content-Type is set by OkHttp from the body
+        Request.Builder builder = new Request.Builder()
                 .addHeader(
-                        "Content-Type", "application/json; charset=utf-8"
-                )
+                        "X-Auth-Token", apiKey);
+        if (contentEncoding != null) {
+            builder.addHeader("Content-Encoding", contentEncoding);
+        }
+        if (idempotencyKey != null) {
+            builder.addHeader(HEADER_IDEMPOTENCY_KEY, idempotencyKey);
+        }
+        Request request = builder
                 .url(String.format("%s", receiverUrl))
-                .post(buildRequestBody(events, appMetadata))
+                .post(body)
                 .build();
-        Response response = client.newCall(request).execute();
+        Response response = (client != null ? client : getSharedClient()).newCall(request).execute();
+        rawBytesSent.addAndGet(body.getRawBytes());
+        wireBytesSent.addAndGet(body.getWireBytes());
 
-        return ApiResponse.fromHttpResponse(response);
+        return response;
     }
 }
@@ -0,0 +1,48 @@
+package com.logunify.logging.http;
+
+import okhttp3.MediaType;
+
+/**
+ * Encodings of the bulk request body.
+ */
+public enum PayloadFormat {
+    /**
+     * JSON document with Base64 encoded events, understood by every receiver.
+     */
+    JSON(HttpClient.JSON),
+    /**
+     * Protobuf batch message with raw event bytes, names are sent once per batch:
+     * <pre>
+     * message EventBatch {
+     *   AppMetadata app_metadata = 1;
+     *   // Schema and project names, referenced by their position starting at 1
+     *   repeated string names = 2;
+     *   repeated Event events = 3;
+     * }
+     * message AppMetadata {
+     *   int32 version_code = 1;
+     *   string version_name = 2;
+     *   string installation_id = 3;
+     * }
+     * message Event {
+     *   // 0 when the name is missing
+     *   uint32 schema_name = 1;
+     *   uint32 project_name = 2;
+     *   bytes payload = 3;
+     *   // Unique per installation, left out by queues which do not assign ids
+     *   string event_id = 4;
+     * }
+     * </pre>
+     */
+    PROTOBUF(MediaType.parse("application/x-protobuf"));
+
+    private final MediaType mediaType;
+
+    PayloadFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+}